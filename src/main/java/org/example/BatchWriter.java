@@ -0,0 +1,577 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Buffers insert rows per target table and writes them with addBatch/executeBatch,
+ * committing every N rows instead of once per statement.
+ * Rows are queued with a client-assigned id (see IdAllocator) or, without one, get their id from the
+ * generated keys on flush; rows whose generated id is needed straight away go through insertNow.
+ * In upsert mode (dm.upsert) entities are resolved or created with one statement through upsertNow and
+ * relationship batches skip rows that already exist, so no separate existence check is needed.
+ */
+public class BatchWriter implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(BatchWriter.class);
+
+    /**
+     * Called right before each commit, to write bookkeeping rows into the same transaction
+     */
+    public interface CommitListener {
+        void beforeCommit(Connection conn) throws SQLException;
+    }
+
+    /**
+     * Id of a written or queued row. Queued rows get their id from the generated keys when their batch is flushed.
+     */
+    public static class RowId {
+        private int id;
+
+        // Set for rows queued by this writer until a relationship row references them
+        private boolean unreferenced;
+
+        private RowId(int id) {
+            this.id = id;
+        }
+
+        public static RowId of(int id) {
+            return new RowId(id);
+        }
+
+        public int get() {
+            return id;
+        }
+
+        public boolean isResolved() {
+            return id > 0;
+        }
+
+        /**
+         * @return true if this writer queued the row and has not queued a relationship to it yet, so
+         * no relationship row can reference it, whether or not its id is known already
+         */
+        public boolean isUnreferenced() {
+            return unreferenced;
+        }
+    }
+
+    private static class TableBatch {
+        final String table;
+        final List<String> columns;
+        final boolean assignedIds;
+        final String sql;
+        final List<ColumnType> types;
+        final List<List<Object>> rows = new ArrayList<>();
+        final List<RowId> ids = new ArrayList<>();
+
+        TableBatch(String table, List<String> columns, boolean assignedIds, String sql, List<ColumnType> types) {
+            this.table = table;
+            this.columns = List.copyOf(columns);
+            this.assignedIds = assignedIds;
+            this.sql = sql;
+            this.types = types;
+        }
+    }
+
+    private final Connection conn;
+    private final int batchSize;
+    private final int commitRows;
+    private final boolean originalAutoCommit;
+
+    // Dialect used for upsert statements, or null when upsert mode is off or not supported
+    private final SqlDialect upsertDialect;
+
+    // Set when several writers ingest in parallel; their new entities only become visible to others on commit
+    private final EntityClaims claims;
+    private final List<EntityClaims.Claim> uncommittedClaims = new ArrayList<>();
+    private CommitListener commitListener;
+
+    // Rollup aggregates of the open transaction, created on first use; null if there are no rollup tables
+    private HierarchyRollup.Aggregates rollups;
+    private boolean rollupsLoaded;
+
+    // New paths of the open transaction, handed to the hierarchy index on commit
+    private HierarchyIndex.Paths hierarchyPaths;
+    private boolean hierarchyPathsLoaded;
+
+    // Entity batches are flushed before relationship batches, which reference their ids
+    private final Map<String, TableBatch> entityBatches = new LinkedHashMap<>();
+    private final Map<String, TableBatch> relationshipBatches = new LinkedHashMap<>();
+
+    // Queued but not yet flushed rows by dedup key, so duplicates inside one batch are not written twice
+    private final Map<String, Map<List<String>, RowId>> pendingEntities = new HashMap<>();
+    private final Set<List<Object>> pendingRelationships = new HashSet<>();
+
+    private int pendingRows;
+    private int uncommittedRows;
+    private long totalRows;
+    private final long startNanos = System.nanoTime();
+
+    /**
+     * @param conn Connection to write through; auto-commit is switched off until close
+     * @param batchSize Number of queued rows that triggers a flush
+     * @param commitRows Number of written rows per transaction, 0 to commit only at the end
+     */
+    public BatchWriter(Connection conn, int batchSize, int commitRows) throws SQLException {
+        this(conn, batchSize, commitRows, null);
+    }
+
+    /**
+     * @param claims Claims shared with the other writers of a parallel run, or null for a single writer
+     */
+    public BatchWriter(Connection conn, int batchSize, int commitRows, EntityClaims claims) throws SQLException {
+        this.conn = conn;
+        this.batchSize = Math.max(1, batchSize);
+        this.commitRows = commitRows;
+        this.claims = claims;
+        this.originalAutoCommit = conn.getAutoCommit();
+        this.upsertDialect = IngestionConfig.isUpsert() ? upsertDialect(conn) : null;
+        conn.setAutoCommit(false);
+    }
+
+    public Connection getConnection() {
+        return conn;
+    }
+
+    /**
+     * @return true if rows are written with upsert statements that tolerate existing rows
+     */
+    public boolean isUpsert() {
+        return upsertDialect != null;
+    }
+
+    public void setCommitListener(CommitListener commitListener) {
+        this.commitListener = commitListener;
+    }
+
+    /**
+     * Gets the running rollup aggregates of this writer, which are merged into the rollup tables
+     * right before each commit and dropped on rollback
+     * @return The aggregates, or null if the database has no rollup tables
+     */
+    public HierarchyRollup.Aggregates getRollups() throws SQLException {
+        if (!rollupsLoaded) {
+            SchemaCatalog catalog = SchemaCatalog.get(conn);
+            HierarchyRollup rollup = catalog.getRollup();
+            rollups = rollup != null ? rollup.newAggregates(catalog) : null;
+            rollupsLoaded = true;
+        }
+        return rollups;
+    }
+
+    /**
+     * Gets the new paths of the open transaction, which are added to the loaded HierarchyIndex right
+     * after each commit and dropped on rollback
+     * @return The paths, or null if the database has no hierarchy
+     */
+    public HierarchyIndex.Paths getHierarchyPaths() throws SQLException {
+        if (!hierarchyPathsLoaded) {
+            hierarchyPaths = HierarchyIndex.Paths.forCatalog(SchemaCatalog.get(conn));
+            hierarchyPathsLoaded = true;
+        }
+        return hierarchyPaths;
+    }
+
+    /**
+     * @return Number of rows written so far
+     */
+    public long getTotalRows() {
+        return totalRows;
+    }
+
+    /**
+     * @return The claims shared with other writers, or null if this writer runs alone
+     */
+    public EntityClaims getClaims() {
+        return claims;
+    }
+
+    /**
+     * Remembers a claim this writer owns, to publish it on the next commit
+     */
+    public void trackClaim(EntityClaims.Claim claim) {
+        uncommittedClaims.add(claim);
+    }
+
+    /**
+     * Inserts a row immediately and returns its generated id
+     * @return The generated id, or -1 if nothing was inserted
+     */
+    public int insertNow(String table, List<String> columns, List<?> values) throws SQLException {
+        try (PreparedStatement stmt = conn.prepareStatement(buildInsertSql(table, columns),
+                Statement.RETURN_GENERATED_KEYS)) {
+            bindRow(stmt, values, columnTypes(table, columns));
+            long start = System.nanoTime();
+            int inserted = stmt.executeUpdate();
+            IngestionMetrics.rowsWritten("insert " + table, inserted, System.nanoTime() - start);
+            if (inserted > 0) {
+                rowsWritten(1);
+                try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
+                    if (generatedKeys.next()) {
+                        return generatedKeys.getInt(1);
+                    }
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Inserts an entity row, or finds the existing row with the same natural key, in one statement.
+     * The row counts as written either way.
+     * @param keyColumns Columns of the table's unique natural key, all of which must be among columns
+     * @return The id of the new or existing row, or -1 if the database returned none
+     */
+    public int upsertNow(String table, List<String> columns, List<?> values, List<String> keyColumns)
+            throws SQLException {
+        if (upsertDialect == null) {
+            throw new SQLException("Upsert mode is not enabled for this writer");
+        }
+
+        String sql = upsertDialect.upsertEntitySql(buildInsertSql(table, columns), keyColumns);
+        if (upsertDialect.upsertReturnsRow()) {
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                bindRow(stmt, values, columnTypes(table, columns));
+                long start = System.nanoTime();
+                try (ResultSet rs = stmt.executeQuery()) {
+                    IngestionMetrics.rowsWritten("upsert " + table, 1, System.nanoTime() - start);
+                    rowsWritten(1);
+                    return rs.next() ? rs.getInt(1) : -1;
+                }
+            }
+        }
+
+        try (PreparedStatement stmt = conn.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)) {
+            bindRow(stmt, values, columnTypes(table, columns));
+            long start = System.nanoTime();
+            stmt.executeUpdate();
+            IngestionMetrics.rowsWritten("upsert " + table, 1, System.nanoTime() - start);
+            rowsWritten(1);
+            try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
+                return generatedKeys.next() ? generatedKeys.getInt(1) : -1;
+            }
+        }
+    }
+
+    /**
+     * Finds an entity row that is queued but not flushed yet and has the same dedup key
+     * @param columns Columns the element sets
+     * @param values Values of those columns, normalized
+     * @return Its pending id, or null if no such row is queued
+     */
+    public RowId findPendingEntity(String table, List<String> columns, List<String> values) throws SQLException {
+        Map<List<String>, RowId> pending = pendingEntities.get(table);
+        return pending == null ? null : pending.get(SchemaCatalog.get(conn).getDedupKey(table, columns, values));
+    }
+
+    /**
+     * Queues an entity row; its id becomes available once the batch is flushed
+     * @return The pending id of the row
+     */
+    public RowId queueEntity(String table, List<String> columns, List<String> values) throws SQLException {
+        return queueEntity(table, columns, values, new RowId(-1));
+    }
+
+    /**
+     * Queues an entity row whose id has already been assigned
+     * @param id Id to insert the row with, e.g. from IdAllocator
+     * @return The id of the row, already resolved
+     */
+    public RowId queueEntity(String table, List<String> columns, List<String> values, int id) throws SQLException {
+        return queueEntity(table, columns, values, new RowId(id));
+    }
+
+    private RowId queueEntity(String table, List<String> columns, List<String> values, RowId rowId)
+            throws SQLException {
+        boolean assigned = rowId.isResolved();
+        String sql = buildInsertSql(table, assigned ? withIdColumn(columns) : columns);
+        TableBatch batch = entityBatches.get(sql);
+        if (batch == null) {
+            List<String> batchColumns = assigned ? withIdColumn(columns) : columns;
+            batch = new TableBatch(table, columns, assigned, sql, columnTypes(table, batchColumns));
+            entityBatches.put(sql, batch);
+        }
+        batch.rows.add(new ArrayList<>(values));
+        batch.ids.add(rowId);
+        rowId.unreferenced = true;
+        pendingEntities.computeIfAbsent(table, k -> new HashMap<>())
+                .put(SchemaCatalog.get(conn).getDedupKey(table, columns, values), rowId);
+        rowQueued();
+        return rowId;
+    }
+
+    /**
+     * Queues a relationship row. Values are either Integer ids or RowIds of queued entities.
+     * In upsert mode a row that already exists in the table is skipped when the batch is written.
+     * @return false if the same row is already queued
+     */
+    public boolean queueRelationship(String table, List<String> columns, List<Object> values) throws SQLException {
+        List<Object> key = new ArrayList<>(values.size() + 1);
+        key.add(table);
+        for (Object value : values) {
+            // Resolved ids compare by value, queued ones by identity
+            key.add(value instanceof RowId rowId && rowId.isResolved() ? (Object) rowId.get() : value);
+        }
+        if (!pendingRelationships.add(key)) {
+            return false;
+        }
+        for (Object value : values) {
+            if (value instanceof RowId rowId) {
+                rowId.unreferenced = false;
+            }
+        }
+
+        String sql = buildInsertSql(table, columns);
+        if (upsertDialect != null) {
+            sql = upsertDialect.insertIgnoreSql(sql);
+        }
+        TableBatch batch = relationshipBatches.get(sql);
+        if (batch == null) {
+            batch = new TableBatch(table, columns, false, sql, columnTypes(table, columns));
+            relationshipBatches.put(sql, batch);
+        }
+        batch.rows.add(new ArrayList<>(values));
+        batch.ids.add(null);
+        rowQueued();
+        return true;
+    }
+
+    /**
+     * Queues an INSERT ... SELECT that derives a row from rows written earlier in the same batch, such
+     * as the fact row of a new relationship. It runs after the entity and relationship rows queued
+     * before it, in the same transaction. Values are Integer ids or RowIds of queued entities.
+     * In upsert mode a row that already exists in the table is skipped when the batch is written.
+     */
+    public void queueDerived(String table, String sql, List<Object> values) throws SQLException {
+        if (upsertDialect != null) {
+            sql = upsertDialect.insertIgnoreSql(sql);
+        }
+        TableBatch batch = relationshipBatches.get(sql);
+        if (batch == null) {
+            batch = new TableBatch(table, Collections.emptyList(), false, sql, Collections.emptyList());
+            relationshipBatches.put(sql, batch);
+        }
+        batch.rows.add(new ArrayList<>(values));
+        batch.ids.add(null);
+        rowQueued();
+    }
+
+    /**
+     * Writes all queued rows and commits if the commit interval has been reached
+     */
+    public void flush() throws SQLException {
+        if (pendingRows == 0) {
+            return;
+        }
+        for (TableBatch batch : entityBatches.values()) {
+            executeBatch(batch, !batch.assignedIds);
+            recordInDedupIndex(batch);
+        }
+        for (TableBatch batch : relationshipBatches.values()) {
+            executeBatch(batch, false);
+        }
+        entityBatches.clear();
+        relationshipBatches.clear();
+        pendingEntities.clear();
+        pendingRelationships.clear();
+
+        int written = pendingRows;
+        pendingRows = 0;
+        rowsWritten(written);
+    }
+
+    /**
+     * Writes all queued rows and commits them now
+     */
+    public void commit() throws SQLException {
+        flush();
+        if (uncommittedRows > 0) {
+            commitTransaction();
+        }
+    }
+
+    /**
+     * Flushes what is left and commits the open transaction
+     */
+    public void finish() throws SQLException {
+        flush();
+        commitTransaction();
+
+        if (log.isInfoEnabled()) {
+            double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+            log.info("Wrote {} rows in {} s ({} rows/s)", totalRows, String.format("%.2f", seconds),
+                    String.format("%.0f", seconds > 0 ? totalRows / seconds : 0));
+        }
+    }
+
+    /**
+     * Drops queued rows and rolls back the uncommitted part of the run
+     */
+    public void rollback() throws SQLException {
+        entityBatches.clear();
+        relationshipBatches.clear();
+        pendingEntities.clear();
+        pendingRelationships.clear();
+        pendingRows = 0;
+        uncommittedRows = 0;
+        if (rollups != null) {
+            rollups.clear();
+        }
+        if (hierarchyPaths != null) {
+            hierarchyPaths.clear();
+        }
+        try {
+            conn.rollback();
+        } finally {
+            // Released even if the rollback fails, so other writers waiting on the claims go on
+            if (claims != null) {
+                for (EntityClaims.Claim claim : uncommittedClaims) {
+                    claims.abandon(claim);
+                }
+                uncommittedClaims.clear();
+            } else {
+                // The indexes may hold ids of rows that were just rolled back
+                EntityDedupIndex.clear();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws SQLException {
+        conn.setAutoCommit(originalAutoCommit);
+    }
+
+    private void executeBatch(TableBatch batch, boolean returnKeys) throws SQLException {
+        try (PreparedStatement stmt = returnKeys
+                ? conn.prepareStatement(batch.sql, Statement.RETURN_GENERATED_KEYS)
+                : conn.prepareStatement(batch.sql)) {
+            for (int r = 0; r < batch.rows.size(); r++) {
+                List<Object> row = batch.rows.get(r);
+                if (batch.assignedIds) {
+                    List<Object> withId = new ArrayList<>(row.size() + 1);
+                    withId.add(batch.ids.get(r));
+                    withId.addAll(row);
+                    row = withId;
+                }
+                bindRow(stmt, row, batch.types);
+                stmt.addBatch();
+            }
+            long start = System.nanoTime();
+            stmt.executeBatch();
+            IngestionMetrics.batchWritten("insert " + batch.table, batch.rows.size(), System.nanoTime() - start);
+
+            if (returnKeys) {
+                try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
+                    int i = 0;
+                    while (generatedKeys.next() && i < batch.ids.size()) {
+                        batch.ids.get(i++).id = generatedKeys.getInt(1);
+                    }
+                    if (i < batch.ids.size()) {
+                        throw new SQLException("Expected " + batch.ids.size() + " generated keys for "
+                                + batch.sql + " but got " + i);
+                    }
+                }
+            }
+        }
+    }
+
+    private void recordInDedupIndex(TableBatch batch) throws SQLException {
+        EntityDedupIndex index = EntityDedupIndex.peek(batch.table);
+        if (index == null || claims != null) {
+            return; // Parallel writers publish their rows through the claims on commit
+        }
+        SchemaCatalog catalog = SchemaCatalog.get(conn);
+        for (int i = 0; i < batch.rows.size(); i++) {
+            List<String> values = new ArrayList<>(batch.columns.size());
+            for (Object value : batch.rows.get(i)) {
+                values.add((String) value);
+            }
+            index.put(catalog.getDedupColumns(batch.table), catalog.getDedupKey(batch.table, batch.columns, values),
+                    batch.ids.get(i).get());
+        }
+    }
+
+    private void rowQueued() throws SQLException {
+        pendingRows++;
+        if (pendingRows >= batchSize) {
+            flush();
+        }
+    }
+
+    private void rowsWritten(int count) throws SQLException {
+        totalRows += count;
+        uncommittedRows += count;
+        if (commitRows > 0 && uncommittedRows >= commitRows && pendingRows == 0) {
+            commitTransaction();
+        }
+    }
+
+    private void commitTransaction() throws SQLException {
+        if (rollups != null) {
+            rollups.flush(conn);
+        }
+        if (commitListener != null) {
+            commitListener.beforeCommit(conn);
+        }
+        conn.commit();
+        uncommittedRows = 0;
+        if (hierarchyPaths != null) {
+            hierarchyPaths.publish();
+        }
+
+        if (claims != null) {
+            for (EntityClaims.Claim claim : uncommittedClaims) {
+                claims.commit(claim, claim.getRowId().get());
+            }
+            uncommittedClaims.clear();
+        }
+    }
+
+    private List<ColumnType> columnTypes(String table, List<String> columns) throws SQLException {
+        return SchemaCatalog.get(conn).getColumnTypes(table, columns);
+    }
+
+    /**
+     * Binds ids with setInt and attribute values, already normalized, with the setter of their column type
+     */
+    private static void bindRow(PreparedStatement stmt, List<?> values, List<ColumnType> types) throws SQLException {
+        for (int i = 0; i < values.size(); i++) {
+            Object value = values.get(i);
+            if (value instanceof RowId rowId) {
+                if (!rowId.isResolved()) {
+                    throw new SQLException("Row references an entity that has not been written yet");
+                }
+                stmt.setInt(i + 1, rowId.get());
+            } else if (value instanceof Integer intValue) {
+                stmt.setInt(i + 1, intValue);
+            } else {
+                types.get(i).bind(stmt, i + 1, (String) value);
+            }
+        }
+    }
+
+    private static SqlDialect upsertDialect(Connection conn) throws SQLException {
+        SqlDialect dialect = SqlDialect.current();
+        if (dialect.matches(conn)) {
+            return dialect;
+        }
+        log.warn("Upsert mode is not supported on {}, using lookups before inserts",
+                conn.getMetaData().getDatabaseProductName());
+        return null;
+    }
+
+    private static List<String> withIdColumn(List<String> columns) {
+        List<String> withId = new ArrayList<>(columns.size() + 1);
+        withId.add("id");
+        withId.addAll(columns);
+        return withId;
+    }
+
+    private static String buildInsertSql(String table, List<String> columns) {
+        return "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES ("
+                + String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+    }
+}
@@ -0,0 +1,599 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.*;
+import java.util.*;
+
+/**
+ * First-time load of a data XML file into empty tables through the database's native bulk loader.
+ * The file is streamed once into one tab-separated staging file per entity table plus one for the
+ * relationships table, with ids assigned in memory. The staging files are then loaded with
+ * LOAD DATA LOCAL INFILE (MySQL) or COPY ... FROM STDIN (PostgreSQL), with the secondary
+ * indexes dropped during the load and rebuilt afterwards.
+ * Duplicates are removed in memory while the dedup keys fit dm.dedup.capacity; a table that outgrows
+ * it is loaded into a scratch table and deduplicated by the database on the same key.
+ */
+public class BulkLoader {
+    private static final Logger log = LoggerFactory.getLogger(BulkLoader.class);
+
+    /**
+     * Staging file of one table, plus the most recently staged rows for deduplication
+     */
+    private static class StagingTable implements Closeable {
+        final String table;
+        final List<String> columns;
+        final List<ColumnType> types;
+        final List<String> keyColumns;
+        final int[] keyPositions;
+        final Path file;
+        final BufferedWriter out;
+        final Map<List<String>, Integer> entityIds;
+        final Set<List<Integer>> relationships;
+        int nextId = 1;
+        long rows;
+
+        // True once a staged row has been evicted, so the staging file may hold duplicates
+        boolean overflowed;
+
+        /**
+         * @param keyColumns Columns rows are deduplicated on, as in the inserter
+         * @param capacity Rows kept for deduplication before the least recently used are evicted
+         */
+        StagingTable(String table, List<String> columns, List<ColumnType> types, List<String> keyColumns,
+                     int capacity, Path dir) throws IOException {
+            this.table = table;
+            this.columns = columns;
+            this.types = types;
+            this.keyColumns = keyColumns;
+            this.keyPositions = new int[keyColumns.size()];
+            for (int i = 0; i < keyPositions.length; i++) {
+                keyPositions[i] = columns.indexOf(keyColumns.get(i));
+            }
+            this.entityIds = new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<String>, Integer> eldest) {
+                    return evict(size() > capacity);
+                }
+            };
+            this.relationships = Collections.newSetFromMap(new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<List<Integer>, Boolean> eldest) {
+                    return evict(size() > capacity);
+                }
+            });
+            this.file = dir.resolve(table + ".tsv");
+            this.out = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+        }
+
+        private boolean evict(boolean full) {
+            if (full && !overflowed) {
+                overflowed = true;
+                log.info("More than {} distinct rows staged for {}. Duplicates are removed in the database.",
+                        IngestionConfig.getDedupCapacity(), table);
+            }
+            return full;
+        }
+
+        String scratchTable() {
+            return "bulk_stage_" + table;
+        }
+
+        String idMapTable() {
+            return "bulk_ids_" + table;
+        }
+
+        void writeRow(List<?> values) throws IOException {
+            for (int i = 0; i < values.size(); i++) {
+                if (i > 0) {
+                    out.write('\t');
+                }
+                out.write(escape(values.get(i)));
+            }
+            out.write('\n');
+            rows++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Bulk loads a data XML file. Falls back to the streaming mode when the tables already hold data,
+     * since ids and duplicates are only tracked for the rows of this file.
+     * @param xmlFilePath Path to the data XML file
+     */
+    public static void load(String xmlFilePath) {
+        log.info("Bulk loading XML data from {}", xmlFilePath);
+        Path dir = null;
+        Map<String, StagingTable> staging = new LinkedHashMap<>();
+        boolean measured = false;
+
+        try (Connection conn = DatabaseConnector.getConnection()) {
+            SqlDialect dialect = SqlDialect.current();
+            if (!dialect.matches(conn)) {
+                log.info("Bulk loading is not supported for {}. Using streaming mode.",
+                        conn.getMetaData().getDatabaseProductName());
+                XMLDataInserter.insertStoreDataStreaming(xmlFilePath);
+                return;
+            }
+
+            SchemaCatalog catalog = SchemaCatalog.get(conn);
+            Map<String, Set<String>> hierarchyRules = catalog.getHierarchyRules();
+            String leafEntity = catalog.getLeafEntity();
+            if (leafEntity == null) {
+                log.warn("Could not determine leaf entity for relationships");
+                return;
+            }
+            List<String> tables = loadOrder(hierarchyRules, leafEntity);
+            Map<String, String> derived = derivedTables(catalog);
+
+            if (!tablesEmpty(conn, tables) || !tablesEmpty(conn, new ArrayList<>(derived.keySet()))) {
+                log.info("Bulk loading needs empty tables. Using streaming mode.");
+                XMLDataInserter.insertStoreDataStreaming(xmlFilePath);
+                return;
+            }
+
+            Path base = Paths.get(IngestionConfig.getBulkStagingDir());
+            Files.createDirectories(base);
+            dir = Files.createTempDirectory(base, "load-");
+            int capacity = Math.max(IngestionConfig.getDedupCapacity(), 0);
+            for (String table : tables) {
+                List<String> columns = new ArrayList<>(catalog.getColumns(table));
+                columns.remove("id");
+                if (!table.equals(leafEntity + "_relationships")) {
+                    columns.add(0, "id"); // Entity ids are assigned here, relationship ids by the database
+                }
+                staging.put(table, new StagingTable(table, columns, catalog.getColumnTypes(table, columns),
+                        catalog.getDedupColumns(table), capacity, dir));
+            }
+
+            IngestionMetrics.startRun(xmlFilePath, new File(xmlFilePath).length(), 0);
+            measured = true;
+            boolean valid;
+            try {
+                valid = stageDocument(xmlFilePath, staging, hierarchyRules, leafEntity);
+            } finally {
+                for (StagingTable table : staging.values()) {
+                    table.close();
+                }
+            }
+            if (!valid) {
+                log.warn("XML hierarchy validation failed. Nothing has been loaded.");
+                return;
+            }
+
+            long start = System.nanoTime();
+            long rows = loadStagedTables(conn, dialect, staging.values(), derived);
+            EntityDedupIndex.clear();
+            HierarchyIndex.clear(); // Reloaded with the bulk loaded paths on next use
+
+            if (log.isInfoEnabled()) {
+                double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+                log.info("Bulk loaded {} rows in {} s ({} rows/s)", rows, String.format("%.2f", seconds),
+                        String.format("%.0f", seconds > 0 ? rows / seconds : 0));
+            }
+            log.info("Data insertion completed successfully.");
+        } catch (SQLException | IOException | XMLStreamException e) {
+            log.error("Bulk loading {} failed", xmlFilePath, e);
+        } finally {
+            if (dir != null) {
+                deleteStagingFiles(dir, staging.values());
+            }
+            if (measured) {
+                IngestionMetrics.finishRun();
+            }
+        }
+    }
+
+    /**
+     * Entity tables from the root of the hierarchy down, then the relationships table
+     */
+    private static List<String> loadOrder(Map<String, Set<String>> hierarchyRules, String leafEntity) {
+        Set<String> children = new HashSet<>();
+        for (Set<String> childSet : hierarchyRules.values()) {
+            children.addAll(childSet);
+        }
+
+        List<String> order = new ArrayList<>();
+        Deque<String> queue = new ArrayDeque<>();
+        for (String parent : hierarchyRules.keySet()) {
+            if (!children.contains(parent)) {
+                queue.add(parent);
+            }
+        }
+        while (!queue.isEmpty()) {
+            String entity = queue.poll();
+            if (!order.contains(entity)) {
+                order.add(entity);
+                queue.addAll(hierarchyRules.getOrDefault(entity, Collections.emptySet()));
+            }
+        }
+        order.add(leafEntity + "_relationships");
+        return order;
+    }
+
+    private static boolean tablesEmpty(Connection conn, List<String> tables) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            for (String table : tables) {
+                try (ResultSet rs = stmt.executeQuery("SELECT 1 FROM " + table + " LIMIT 1")) {
+                    if (rs.next()) {
+                        return false;
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Streams the document into the staging files, validating each parent/child edge on the way
+     * @return false if a hierarchy violation was found
+     */
+    private static boolean stageDocument(String xmlFilePath, Map<String, StagingTable> staging,
+                                         Map<String, Set<String>> hierarchyRules, String leafEntity)
+            throws IOException, XMLStreamException {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        StagingTable relationships = staging.get(leafEntity + "_relationships");
+
+        // Tag and id of each element on the current path; id 0 marks an element that is not stored
+        Deque<String> tags = new ArrayDeque<>();
+        Deque<Integer> ids = new ArrayDeque<>();
+
+        try (InputStream in = IngestionMetrics.track(new BufferedInputStream(new FileInputStream(xmlFilePath)))) {
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            try {
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        IngestionMetrics.elementParsed();
+                        String tag = reader.getLocalName();
+                        String parent = tags.peek();
+                        if (parent != null && (!hierarchyRules.containsKey(parent)
+                                || !hierarchyRules.get(parent).contains(tag))) {
+                            log.warn("Hierarchy violation: {} cannot be a child of {} (line {})", tag, parent,
+                                    reader.getLocation().getLineNumber());
+                            return false;
+                        }
+
+                        int id = 0;
+                        StagingTable table = staging.get(tag);
+                        if (table == null) {
+                            throw new XMLStreamException("Table " + tag + " does not exist or has no columns");
+                        }
+                        if (ids.isEmpty() || ids.peek() > 0) {
+                            id = stageEntity(reader, table);
+                        }
+                        tags.push(tag);
+                        ids.push(id);
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        String tag = tags.pop();
+                        int id = ids.pop();
+                        if (id > 0 && tag.equals(leafEntity)) {
+                            stageRelationship(relationships, tag, id, tags, ids);
+                        }
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stages an entity row unless a row with the same dedup key was staged before
+     * @return The id of the entity, or 0 if the element has no attributes to store
+     */
+    private static int stageEntity(XMLStreamReader reader, StagingTable table) throws XMLStreamException {
+        Map<String, String> attributeMap = new HashMap<>();
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            attributeMap.put(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+        }
+
+        // values[0] is left for the id
+        String[] values = new String[table.columns.size()];
+        boolean hasValue = false;
+        for (int i = 1; i < values.length; i++) {
+            String value = attributeMap.get(table.columns.get(i));
+            hasValue |= value != null;
+            try {
+                // Staged in canonical form so the in-memory dedup matches what the typed path would
+                values[i] = table.types.get(i).normalize(value);
+            } catch (SQLException e) {
+                throw new XMLStreamException(e.getMessage(), reader.getLocation(), e);
+            }
+        }
+        if (!hasValue) {
+            return 0;
+        }
+
+        List<String> key = new ArrayList<>(table.keyPositions.length);
+        for (int position : table.keyPositions) {
+            key.add(values[position]);
+        }
+        Integer existingId = table.entityIds.get(key);
+        if (existingId != null) {
+            return existingId;
+        }
+
+        int id = table.nextId++;
+        table.entityIds.put(key, id);
+        List<Object> row = new ArrayList<>(Arrays.asList((Object[]) values));
+        row.set(0, id);
+        try {
+            table.writeRow(row);
+        } catch (IOException e) {
+            throw new XMLStreamException("Could not write staging file " + table.file, e);
+        }
+        return id;
+    }
+
+    private static void stageRelationship(StagingTable relationships, String leafTag, int leafId,
+                                          Deque<String> ancestorTags, Deque<Integer> ancestorIds)
+            throws XMLStreamException {
+        Map<String, Integer> path = new HashMap<>();
+        path.put(leafTag, leafId);
+        Iterator<String> tagIt = ancestorTags.iterator();
+        Iterator<Integer> idIt = ancestorIds.iterator();
+        while (tagIt.hasNext()) {
+            path.put(tagIt.next(), idIt.next());
+        }
+
+        List<Integer> row = new ArrayList<>(relationships.columns.size());
+        for (String column : relationships.columns) {
+            row.add(path.get(column.substring(0, column.length() - "_id".length())));
+        }
+        if (relationships.relationships.add(row)) {
+            try {
+                relationships.writeRow(row);
+            } catch (IOException e) {
+                throw new XMLStreamException("Could not write staging file " + relationships.file, e);
+            }
+        }
+    }
+
+    /**
+     * Tables filled from the relationship table rather than from the document: the fact table and
+     * the rollup tables
+     * @return INSERT ... SELECT that fills each of them, keyed by table name
+     */
+    private static Map<String, String> derivedTables(SchemaCatalog catalog) {
+        Map<String, String> derived = new LinkedHashMap<>();
+        FactTable facts = catalog.getFactTable();
+        if (facts != null) {
+            derived.put(facts.getTable(), facts.getBackfillSql());
+        }
+        HierarchyRollup rollup = catalog.getRollup();
+        if (rollup != null) {
+            for (String level : rollup.getLevels()) {
+                derived.put(HierarchyRollup.getTableName(level), rollup.getBackfillSql(level));
+            }
+        }
+        return derived;
+    }
+
+    /**
+     * Loads the staging files in hierarchy order in one transaction, with secondary indexes dropped,
+     * and fills the derived tables from the loaded relationships in the same transaction
+     * @param derived INSERT ... SELECT per derived table, from derivedTables
+     * @return Number of rows loaded into the entity and relationship tables
+     */
+    private static long loadStagedTables(Connection conn, SqlDialect dialect, Collection<StagingTable> tables,
+                                         Map<String, String> derived) throws SQLException, IOException {
+        List<StagingTable> deduplicated = deduplicatedTables(tables);
+        List<String> droppedIndexes = new ArrayList<>();
+        for (StagingTable table : tables) {
+            droppedIndexes.addAll(dropSecondaryIndexes(conn, dialect, table.table));
+        }
+        for (String table : derived.keySet()) {
+            droppedIndexes.addAll(dropSecondaryIndexes(conn, dialect, table));
+        }
+
+        long loaded = 0;
+        boolean autoCommit = conn.getAutoCommit();
+        try (Statement stmt = conn.createStatement()) {
+            // Created before the transaction since DDL commits implicitly on MySQL
+            createScratchTables(stmt, deduplicated);
+            dialect.beginBulkLoad(stmt);
+            conn.setAutoCommit(false);
+            try {
+                for (StagingTable table : tables) {
+                    if (table.rows == 0) {
+                        continue;
+                    }
+                    long start = System.nanoTime();
+                    long rows = table.rows;
+                    if (deduplicated.contains(table)) {
+                        rows = loadDeduplicated(conn, dialect, stmt, table, deduplicated);
+                    } else {
+                        dialect.bulkLoad(conn, table.table, table.columns, table.file);
+                    }
+                    IngestionMetrics.rowsWritten("bulk load " + table.table, (int) rows, System.nanoTime() - start);
+                    log.info("Loaded {} rows into {}", rows, table.table);
+                    loaded += rows;
+                    if (table.columns.contains("id")) {
+                        dialect.syncIdentity(stmt, table.table, table.nextId - 1);
+                    }
+                }
+                for (Map.Entry<String, String> table : derived.entrySet()) {
+                    long start = System.nanoTime();
+                    int rows = stmt.executeUpdate(table.getValue());
+                    IngestionMetrics.rowsWritten("bulk load " + table.getKey(), rows, System.nanoTime() - start);
+                    log.info("Loaded {} rows into {}", rows, table.getKey());
+                }
+                conn.commit();
+            } catch (SQLException | IOException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+                dialect.endBulkLoad(stmt);
+            }
+        } finally {
+            // Rebuild the indexes once over the loaded rows instead of maintaining them row by row
+            try (Statement stmt = conn.createStatement()) {
+                for (String createIndex : droppedIndexes) {
+                    stmt.executeUpdate(createIndex);
+                }
+                dropScratchTables(stmt, deduplicated);
+            }
+            if (!droppedIndexes.isEmpty()) {
+                log.info("Rebuilt {} secondary indexes", droppedIndexes.size());
+            }
+        }
+        return loaded;
+    }
+
+    /**
+     * Tables whose staging file may hold duplicates: the entity tables that outgrew the in-memory dedup,
+     * and the relationships table when it did or when it refers to such a table
+     */
+    private static List<StagingTable> deduplicatedTables(Collection<StagingTable> tables) {
+        List<StagingTable> deduplicated = new ArrayList<>();
+        for (StagingTable table : tables) {
+            // The relationships table is staged last and has no id column
+            if (table.overflowed || (!table.columns.contains("id") && !deduplicated.isEmpty())) {
+                deduplicated.add(table);
+            }
+        }
+        return deduplicated;
+    }
+
+    private static void createScratchTables(Statement stmt, List<StagingTable> tables) throws SQLException {
+        dropScratchTables(stmt, tables); // Left over by a load that was killed
+        for (StagingTable table : tables) {
+            stmt.executeUpdate("CREATE TABLE " + table.scratchTable() + " AS SELECT " +
+                    String.join(", ", table.columns) + " FROM " + table.table + " WHERE 1 = 0");
+            if (table.columns.contains("id")) {
+                stmt.executeUpdate("CREATE TABLE " + table.idMapTable() +
+                        " (id INT NOT NULL PRIMARY KEY, canonical_id INT NOT NULL)");
+            }
+        }
+    }
+
+    private static void dropScratchTables(Statement stmt, List<StagingTable> tables) throws SQLException {
+        for (StagingTable table : tables) {
+            stmt.executeUpdate("DROP TABLE IF EXISTS " + table.scratchTable());
+            stmt.executeUpdate("DROP TABLE IF EXISTS " + table.idMapTable());
+        }
+    }
+
+    /**
+     * Bulk loads a staging file that may hold duplicates into its scratch table and copies the distinct
+     * rows over. Entity rows are grouped on the dedup key, NULLs matching as in the inserter, and the
+     * lowest id of each group is kept; relationships are remapped to the kept ids.
+     * @param deduplicated Tables loaded through scratch tables, whose id maps the relationships are remapped with
+     * @return Number of rows inserted into the table
+     */
+    private static long loadDeduplicated(Connection conn, SqlDialect dialect, Statement stmt, StagingTable table,
+                                         List<StagingTable> deduplicated) throws SQLException, IOException {
+        String scratch = table.scratchTable();
+        dialect.bulkLoad(conn, scratch, table.columns, table.file);
+
+        if (table.columns.contains("id")) {
+            stmt.executeUpdate("INSERT INTO " + table.idMapTable() + " (id, canonical_id) SELECT id, MIN(id) OVER " +
+                    "(PARTITION BY " + String.join(", ", table.keyColumns) + ") FROM " + scratch);
+            return stmt.executeUpdate("INSERT INTO " + table.table + " (" + String.join(", ", table.columns) +
+                    ") SELECT s." + String.join(", s.", table.columns) + " FROM " + scratch + " s JOIN " +
+                    table.idMapTable() + " m ON m.id = s.id AND m.canonical_id = s.id");
+        }
+
+        List<String> select = new ArrayList<>();
+        StringBuilder from = new StringBuilder(" FROM " + scratch + " s");
+        for (String column : table.columns) {
+            String entity = column.substring(0, column.length() - "_id".length());
+            StagingTable owner = deduplicated.stream().filter(t -> t.table.equals(entity)).findFirst().orElse(null);
+            if (owner == null) {
+                select.add("s." + column);
+            } else {
+                String alias = "m" + select.size();
+                select.add("COALESCE(" + alias + ".canonical_id, s." + column + ")");
+                from.append(" LEFT JOIN ").append(owner.idMapTable()).append(' ').append(alias)
+                        .append(" ON ").append(alias).append(".id = s.").append(column);
+            }
+        }
+        return stmt.executeUpdate("INSERT INTO " + table.table + " (" + String.join(", ", table.columns) +
+                ") SELECT DISTINCT " + String.join(", ", select) + from);
+    }
+
+    /**
+     * Drops the non-primary indexes of a table that can be dropped
+     * @return CREATE INDEX statements that restore the dropped indexes
+     */
+    private static List<String> dropSecondaryIndexes(Connection conn, SqlDialect dialect, String table)
+            throws SQLException {
+        Map<String, List<String>> indexColumns = new LinkedHashMap<>();
+        Map<String, Boolean> unique = new HashMap<>();
+        try (ResultSet rs = conn.getMetaData().getIndexInfo(conn.getCatalog(), null, table, false, false)) {
+            while (rs.next()) {
+                String name = rs.getString("INDEX_NAME");
+                String column = rs.getString("COLUMN_NAME");
+                if (name == null || column == null || name.equalsIgnoreCase("PRIMARY") || name.endsWith("_pkey")) {
+                    continue;
+                }
+                indexColumns.computeIfAbsent(name, k -> new ArrayList<>()).add(column);
+                unique.put(name, !rs.getBoolean("NON_UNIQUE"));
+            }
+        }
+
+        List<String> restore = new ArrayList<>();
+        try (Statement stmt = conn.createStatement()) {
+            for (Map.Entry<String, List<String>> index : indexColumns.entrySet()) {
+                String name = index.getKey();
+                try {
+                    stmt.executeUpdate(dialect.dropIndexSql(table, name));
+                } catch (SQLException e) {
+                    // Indexes backing a foreign key or constraint stay in place
+                    continue;
+                }
+                restore.add("CREATE " + (unique.get(name) ? "UNIQUE " : "") + "INDEX " + name + " ON " + table +
+                        " (" + String.join(", ", index.getValue()) + ")");
+            }
+        }
+        return restore;
+    }
+
+    private static String escape(Object value) {
+        if (value == null) {
+            return "\\N";
+        }
+        String text = value.toString();
+        StringBuilder sb = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '\\' -> sb.append("\\\\");
+                case '\t' -> sb.append("\\t");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                default -> sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void deleteStagingFiles(Path dir, Collection<StagingTable> tables) {
+        try {
+            for (StagingTable table : tables) {
+                Files.deleteIfExists(table.file);
+            }
+            Files.deleteIfExists(dir);
+        } catch (IOException e) {
+            log.warn("Could not delete staging files in {}: {}", dir, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package org.example;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+
+/**
+ * SQL type of an attribute column, used to bind values with typed setters and to bring attribute
+ * values into one canonical text form. Lookups, dedup keys and staged rows all use the canonical form,
+ * so "19.9" and "19.90" in a DECIMAL(10,2) column are the same entity.
+ */
+public class ColumnType {
+    public enum Kind {
+        INTEGER,
+        BIGINT,
+        DECIMAL,
+        DATE,
+        BOOLEAN,
+        TEXT
+    }
+
+    public static final ColumnType TEXT = new ColumnType(Kind.TEXT, 0);
+
+    private final Kind kind;
+    private final int scale;
+
+    private ColumnType(Kind kind, int scale) {
+        this.kind = kind;
+        this.scale = scale;
+    }
+
+    /**
+     * Maps a column as reported by DatabaseMetaData.getColumns
+     * @param sqlType DATA_TYPE, one of java.sql.Types
+     * @param scale DECIMAL_DIGITS of the column, used for decimals
+     * @return The column type, TEXT for anything that is bound as a string
+     */
+    public static ColumnType fromJdbcType(int sqlType, int scale) {
+        return switch (sqlType) {
+            case Types.INTEGER, Types.SMALLINT, Types.TINYINT -> new ColumnType(Kind.INTEGER, 0);
+            case Types.BIGINT -> new ColumnType(Kind.BIGINT, 0);
+            case Types.DECIMAL, Types.NUMERIC -> new ColumnType(Kind.DECIMAL, scale);
+            case Types.DATE -> new ColumnType(Kind.DATE, 0);
+            // MySQL reports its BOOLEAN, a TINYINT(1), as BIT
+            case Types.BOOLEAN, Types.BIT -> new ColumnType(Kind.BOOLEAN, 0);
+            default -> TEXT;
+        };
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return Digits after the decimal point of a DECIMAL column, 0 for other types
+     */
+    public int getScale() {
+        return scale;
+    }
+
+    /**
+     * Brings an attribute value into the canonical text form of this type
+     * @param value Attribute value from the XML
+     * @return The canonical value
+     * @throws SQLException if the value does not fit the column type
+     */
+    public String normalize(String value) throws SQLException {
+        if (value == null || kind == Kind.TEXT) {
+            return value;
+        }
+        String trimmed = value.trim();
+        try {
+            return switch (kind) {
+                case INTEGER -> Integer.toString(Integer.parseInt(trimmed));
+                case BIGINT -> Long.toString(Long.parseLong(trimmed));
+                case DECIMAL -> new BigDecimal(trimmed).setScale(scale, RoundingMode.HALF_UP).toPlainString();
+                case DATE -> LocalDate.parse(trimmed).toString();
+                case BOOLEAN -> parseBoolean(trimmed) ? "1" : "0";
+                default -> value;
+            };
+        } catch (NumberFormatException | DateTimeParseException e) {
+            throw new SQLException("Value '" + value + "' does not fit a " + kind + " column", e);
+        }
+    }
+
+    /**
+     * Reads a column in the canonical text form, so values from the table compare equal to normalized attributes
+     * @return The canonical value, or null for SQL NULL
+     */
+    public String read(ResultSet rs, int column) throws SQLException {
+        return switch (kind) {
+            case INTEGER, BIGINT -> {
+                long number = rs.getLong(column);
+                yield rs.wasNull() ? null : Long.toString(number);
+            }
+            case DECIMAL -> {
+                BigDecimal decimal = rs.getBigDecimal(column);
+                yield decimal == null ? null : decimal.setScale(scale, RoundingMode.HALF_UP).toPlainString();
+            }
+            case DATE -> {
+                Date date = rs.getDate(column);
+                yield date == null ? null : date.toLocalDate().toString();
+            }
+            case BOOLEAN -> {
+                boolean flag = rs.getBoolean(column);
+                yield rs.wasNull() ? null : (flag ? "1" : "0");
+            }
+            default -> rs.getString(column);
+        };
+    }
+
+    /**
+     * Binds a canonical value with the setter that matches this type
+     */
+    public void bind(PreparedStatement stmt, int index, String value) throws SQLException {
+        if (value == null) {
+            stmt.setNull(index, sqlType());
+            return;
+        }
+        switch (kind) {
+            case INTEGER -> stmt.setInt(index, Integer.parseInt(value));
+            case BIGINT -> stmt.setLong(index, Long.parseLong(value));
+            case DECIMAL -> stmt.setBigDecimal(index, new BigDecimal(value));
+            case DATE -> stmt.setDate(index, Date.valueOf(value));
+            case BOOLEAN -> stmt.setBoolean(index, value.equals("1"));
+            default -> stmt.setString(index, value);
+        }
+    }
+
+    private int sqlType() {
+        return switch (kind) {
+            case INTEGER -> Types.INTEGER;
+            case BIGINT -> Types.BIGINT;
+            case DECIMAL -> Types.DECIMAL;
+            case DATE -> Types.DATE;
+            case BOOLEAN -> Types.BOOLEAN;
+            default -> Types.VARCHAR;
+        };
+    }
+
+    private static boolean parseBoolean(String value) {
+        return switch (value.toLowerCase()) {
+            case "true", "1" -> true;
+            case "false", "0" -> false;
+            default -> throw new NumberFormatException("Not a boolean: " + value);
+        };
+    }
+}
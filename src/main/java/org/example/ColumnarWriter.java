@@ -0,0 +1,213 @@
+package org.example;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * Writes rows in a compact column-oriented binary format. Rows are buffered in row groups of a fixed
+ * size and each group is written column by column, so memory stays bounded by one group whatever
+ * the size of the table. Layout, with varints as unsigned LEB128 and signed values zigzag-encoded:
+ * <pre>
+ * file      = "DMC1" varint(columns) column* group* varint(0) int64(total rows)
+ * column    = utf(name) byte(kind: ColumnType.Kind ordinal) varint(scale)
+ * group     = varint(rows) chunk per column
+ * chunk     = byte(has nulls) [bitmap of present values] values of the present rows
+ * INTEGER, BIGINT, DATE (epoch day): zigzag varint deltas from the previous present value
+ * DECIMAL:  byte(0) zigzag varint deltas of the unscaled values, or byte(1) and the values as text
+ * BOOLEAN:  bitmap
+ * TEXT:     byte(0) (varint length, UTF-8 bytes) per value, or
+ *           byte(1) varint(entries) (varint length, UTF-8 bytes) per entry, varint index per value
+ * </pre>
+ * Text columns use the dictionary form when a group repeats its values, e.g. category names.
+ */
+public class ColumnarWriter implements Closeable {
+    static final byte[] MAGIC = {'D', 'M', 'C', '1'};
+
+    private final DataOutputStream out;
+    private final List<ColumnType> types;
+    private final int groupSize;
+    private final String[][] group;
+    private int rows;
+    private long totalRows;
+
+    /**
+     * @param out Stream the file is written to; closed with the writer
+     * @param names Column names
+     * @param types Column types, in the same order
+     * @param groupSize Rows per row group
+     */
+    public ColumnarWriter(OutputStream out, List<String> names, List<ColumnType> types, int groupSize)
+            throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 1 << 16));
+        this.types = List.copyOf(types);
+        this.groupSize = groupSize;
+        this.group = new String[types.size()][groupSize];
+
+        this.out.write(MAGIC);
+        writeVarint(names.size());
+        for (int i = 0; i < names.size(); i++) {
+            this.out.writeUTF(names.get(i));
+            this.out.writeByte(types.get(i).getKind().ordinal());
+            writeVarint(types.get(i).getScale());
+        }
+    }
+
+    /**
+     * Adds a row
+     * @param values Values in the canonical text form of ColumnType.read, null for SQL NULL
+     */
+    public void write(String[] values) throws IOException {
+        for (int c = 0; c < values.length; c++) {
+            group[c][rows] = values[c];
+        }
+        if (++rows == groupSize) {
+            flushGroup();
+        }
+    }
+
+    public long getTotalRows() {
+        return totalRows + rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        flushGroup();
+        writeVarint(0);
+        out.writeLong(totalRows);
+        out.close();
+    }
+
+    private void flushGroup() throws IOException {
+        if (rows == 0) {
+            return;
+        }
+        writeVarint(rows);
+        for (int c = 0; c < types.size(); c++) {
+            writeChunk(types.get(c), group[c]);
+            Arrays.fill(group[c], 0, rows, null);
+        }
+        totalRows += rows;
+        rows = 0;
+    }
+
+    private void writeChunk(ColumnType type, String[] values) throws IOException {
+        List<String> present = new ArrayList<>(rows);
+        boolean[] isPresent = new boolean[rows];
+        for (int r = 0; r < rows; r++) {
+            if (values[r] != null) {
+                present.add(values[r]);
+                isPresent[r] = true;
+            }
+        }
+        boolean hasNulls = present.size() < rows;
+        out.writeByte(hasNulls ? 1 : 0);
+        if (hasNulls) {
+            writeBitmap(isPresent);
+        }
+
+        switch (type.getKind()) {
+            case INTEGER, BIGINT -> {
+                long previous = 0;
+                for (String value : present) {
+                    long number = Long.parseLong(value);
+                    writeSignedVarint(number - previous);
+                    previous = number;
+                }
+            }
+            case DATE -> {
+                long previous = 0;
+                for (String value : present) {
+                    long day = LocalDate.parse(value).toEpochDay();
+                    writeSignedVarint(day - previous);
+                    previous = day;
+                }
+            }
+            case DECIMAL -> writeDecimals(type.getScale(), present);
+            case BOOLEAN -> {
+                boolean[] flags = new boolean[present.size()];
+                for (int i = 0; i < flags.length; i++) {
+                    flags[i] = present.get(i).equals("1");
+                }
+                writeBitmap(flags);
+            }
+            default -> writeText(present);
+        }
+    }
+
+    private void writeDecimals(int scale, List<String> values) throws IOException {
+        long[] unscaled = new long[values.size()];
+        for (int i = 0; i < unscaled.length; i++) {
+            BigDecimal decimal = new BigDecimal(values.get(i)).setScale(scale);
+            if (decimal.unscaledValue().bitLength() > 63) {
+                // Too wide for the delta encoding
+                out.writeByte(1);
+                writePlain(values);
+                return;
+            }
+            unscaled[i] = decimal.unscaledValue().longValue();
+        }
+        out.writeByte(0);
+        long previous = 0;
+        for (long value : unscaled) {
+            writeSignedVarint(value - previous);
+            previous = value;
+        }
+    }
+
+    private void writeText(List<String> values) throws IOException {
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        for (String value : values) {
+            dictionary.putIfAbsent(value, dictionary.size());
+            if (dictionary.size() > values.size() / 2) {
+                break; // Mostly distinct values gain nothing from a dictionary
+            }
+        }
+        if (values.isEmpty() || dictionary.size() > values.size() / 2) {
+            out.writeByte(0);
+            writePlain(values);
+            return;
+        }
+
+        out.writeByte(1);
+        writeVarint(dictionary.size());
+        writePlain(dictionary.keySet());
+        for (String value : values) {
+            writeVarint(dictionary.get(value));
+        }
+    }
+
+    private void writePlain(Collection<String> values) throws IOException {
+        for (String value : values) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarint(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private void writeBitmap(boolean[] bits) throws IOException {
+        for (int i = 0; i < bits.length; i += 8) {
+            int b = 0;
+            for (int j = 0; j < 8 && i + j < bits.length; j++) {
+                if (bits[i + j]) {
+                    b |= 1 << j;
+                }
+            }
+            out.writeByte(b);
+        }
+    }
+
+    private void writeSignedVarint(long value) throws IOException {
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    private void writeVarint(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+}
@@ -0,0 +1,223 @@
+package org.example;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Connection pools per database. A pool stays open after the run moves on to another database, so
+ * switching back finds warm connections; pools that have not handed out a connection for
+ * dm.pool.idle.ms and have none in use are closed in the background. Server-level work such as
+ * listing and creating databases goes through one small shared admin pool.
+ */
+public class ConnectionPools {
+    private static final Logger log = LoggerFactory.getLogger(ConnectionPools.class);
+
+    private static final int ADMIN_POOL_SIZE = 2;
+
+    private static final Map<String, Pool> pools = new ConcurrentHashMap<>();
+    private static HikariDataSource adminPool;
+    private static ScheduledExecutorService evictor;
+
+    /**
+     * A database's pool, when it last handed out a connection and how many callers are getting one.
+     * The count covers the gap between looking the pool up and Hikari counting the connection as
+     * active, so the evictor never closes a pool a caller is about to borrow from.
+     */
+    private static class Pool {
+        final HikariDataSource dataSource;
+        private long lastUsed = System.currentTimeMillis();
+        private int borrowing;
+        private boolean closed;
+
+        Pool(HikariDataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+
+        /**
+         * @return A connection, or null if the pool has been closed since it was looked up
+         */
+        Connection getConnection() throws SQLException {
+            synchronized (this) {
+                if (closed) {
+                    return null;
+                }
+                borrowing++;
+                lastUsed = System.currentTimeMillis();
+            }
+            try {
+                return dataSource.getConnection();
+            } finally {
+                synchronized (this) {
+                    borrowing--;
+                }
+            }
+        }
+
+        /**
+         * Marks the pool closed if nobody has used it since the cutoff and no connection is out or being taken
+         * @return true if the pool is now closed to new callers
+         */
+        synchronized boolean closeIfIdleSince(long cutoff) {
+            if (lastUsed < cutoff && borrowing == 0 && dataSource.getHikariPoolMXBean().getActiveConnections() == 0) {
+                closed = true;
+            }
+            return closed;
+        }
+
+        synchronized void markClosed() {
+            closed = true;
+        }
+    }
+
+    /**
+     * Gets a connection to a database from its pool, opening the pool on first use
+     * @param dbName The database name
+     * @return A pooled connection
+     */
+    public static Connection getConnection(String dbName) throws SQLException {
+        while (true) {
+            Connection conn = pools.computeIfAbsent(dbName, ConnectionPools::open).getConnection();
+            if (conn != null) {
+                return conn;
+            }
+            // The pool was evicted after the lookup; the next lookup opens a new one
+        }
+    }
+
+    /**
+     * Gets a connection to the server that is not bound to one of the application's databases
+     * @return A connection from the shared admin pool
+     */
+    public static synchronized Connection getAdminConnection() throws SQLException {
+        if (adminPool == null || adminPool.isClosed()) {
+            HikariConfig config = newConfig(SqlDialect.current().getAdminUrl(DatabaseConnector.getServerUrl()));
+            config.setPoolName("dm-admin");
+            config.setMaximumPoolSize(ADMIN_POOL_SIZE);
+            config.setMinimumIdle(0);
+            config.setIdleTimeout(10000);
+            adminPool = new HikariDataSource(config);
+        }
+        return adminPool.getConnection();
+    }
+
+    /**
+     * Gets the maximum size of the database pools
+     * @return The pool size from dm.pool.size or the ingestion parallelism
+     */
+    public static int getPoolSize() {
+        return IngestionConfig.getPoolSize();
+    }
+
+    /**
+     * Closes every pool, including the admin pool
+     */
+    public static synchronized void closeAll() {
+        if (evictor != null) {
+            evictor.shutdownNow();
+            evictor = null;
+        }
+        for (String dbName : pools.keySet()) {
+            close(dbName);
+        }
+        if (adminPool != null && !adminPool.isClosed()) {
+            adminPool.close();
+        }
+        adminPool = null;
+    }
+
+    /**
+     * Closes the pool of a database if it is open
+     * @param dbName The database name
+     */
+    public static void close(String dbName) {
+        Pool pool = pools.remove(dbName);
+        if (pool != null) {
+            pool.markClosed();
+            pool.dataSource.close();
+            log.info("Connection pool closed for database: {}", dbName);
+        }
+    }
+
+    private static Pool open(String dbName) {
+        SqlDialect dialect = SqlDialect.current();
+        HikariConfig config = newConfig(dialect.getDatabaseUrl(DatabaseConnector.getServerUrl(), dbName));
+        config.setPoolName("dm-" + dbName);
+
+        // Connection pool settings
+        int size = getPoolSize();
+        config.setMaximumPoolSize(size);
+        config.setMinimumIdle(Math.min(2, size));
+        config.setIdleTimeout(30000);
+        dialect.configurePool(config);
+
+        Pool pool = new Pool(new HikariDataSource(config));
+        startEvictor();
+        log.info("Connection pool of {} initialized for database: {}", size, dbName);
+        return pool;
+    }
+
+    private static HikariConfig newConfig(String url) {
+        HikariConfig config = new HikariConfig();
+        config.setJdbcUrl(url);
+        config.setUsername(IngestionConfig.getDatabaseUser());
+        config.setPassword(IngestionConfig.getDatabasePassword());
+        config.setConnectionTimeout(10000);
+        config.setMetricsTrackerFactory(IngestionMetrics.poolTracker());
+
+        // Add these lines for connection validation
+        config.setConnectionTestQuery("SELECT 1");
+        config.setValidationTimeout(5000);
+        return config;
+    }
+
+    /**
+     * Starts the background check that closes idle pools of databases other than the current one
+     */
+    private static synchronized void startEvictor() {
+        if (evictor != null) {
+            return;
+        }
+        long idleMillis = IngestionConfig.getPoolIdleMillis();
+        evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "dm-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, idleMillis / 2);
+        evictor.scheduleWithFixedDelay(() -> evictIdle(idleMillis), period, period, TimeUnit.MILLISECONDS);
+    }
+
+    private static void evictIdle(long idleMillis) {
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        String current = DatabaseConnector.getDatabaseName();
+        for (String dbName : pools.keySet()) {
+            if (dbName.equals(current)) {
+                continue;
+            }
+            // Decided and removed under the map's lock for the key, so a lookup either gets the pool
+            // before it is marked closed or waits and opens a new one
+            Pool[] evicted = new Pool[1];
+            pools.computeIfPresent(dbName, (name, pool) -> {
+                if (pool.closeIfIdleSince(cutoff)) {
+                    evicted[0] = pool;
+                    return null;
+                }
+                return pool;
+            });
+            if (evicted[0] != null) {
+                evicted[0].dataSource.close();
+                log.info("Connection pool closed for database: {}", dbName);
+            }
+        }
+    }
+}
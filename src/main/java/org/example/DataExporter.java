@@ -0,0 +1,300 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Exports whole tables for analytics jobs. Each source, an entity table, the relationship table or
+ * the joined root-to-leaf paths, is read once through a forward-only cursor and written to every
+ * requested format at the same time: gzip-compressed CSV and the columnar format of ColumnarWriter.
+ * Rows are never collected, so memory stays constant, and exportAll runs the sources in parallel,
+ * each on its own pooled connection. The XML format is not per table: exportAll hands it to
+ * XMLExporter, which rebuilds the nested documents from the paths.
+ */
+public class DataExporter {
+    private static final Logger log = LoggerFactory.getLogger(DataExporter.class);
+
+    /**
+     * Rows per row group of the columnar format
+     */
+    private static final int GROUP_SIZE = 8192;
+
+    public enum Format {
+        CSV_GZIP(".csv.gz"),
+        COLUMNAR(".dmc"),
+        XML(".xml");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    /**
+     * Destination of the rows of one export
+     */
+    private interface RowSink extends Closeable {
+        void write(String[] values) throws IOException;
+    }
+
+    /**
+     * Exports every table of the hierarchy, the relationship table and the joined paths in parallel
+     * @param dir Directory the files are written to
+     * @param formats Formats to write each source in
+     * @return true if every export succeeded
+     */
+    public static boolean exportAll(Path dir, Set<Format> formats) {
+        Map<String, String> sources = new LinkedHashMap<>();
+        try (Connection conn = DatabaseConnector.getConnection()) {
+            SchemaCatalog catalog = SchemaCatalog.get(conn);
+            String leaf = catalog.getLeafEntity();
+            if (leaf == null) {
+                log.warn("The database has no hierarchy to export");
+                return false;
+            }
+            List<String> path = new ArrayList<>(catalog.getHierarchyPath());
+            Collections.reverse(path);
+            for (String entity : path) {
+                sources.put(entity, "SELECT * FROM " + entity);
+            }
+            sources.put(leaf + "_relationships", "SELECT * FROM " + leaf + "_relationships");
+            sources.put(leaf + "_paths", DataRetriever.getPathSql(catalog));
+        } catch (SQLException e) {
+            log.error("Could not read the schema to export: {}", e.getMessage());
+            return false;
+        }
+
+        long start = System.nanoTime();
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        Semaphore connections = new Semaphore(Math.max(1, DatabaseConnector.getMaximumPoolSize() - 1));
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            sources.forEach((name, sql) -> executor.submit(() -> {
+                connections.acquireUninterruptibly();
+                try {
+                    export(name, sql, dir, formats);
+                } catch (SQLException | IOException e) {
+                    failures.add(name + ": " + e.getMessage());
+                } catch (RuntimeException e) {
+                    // Submitted futures are not joined, so nothing else would report it
+                    log.error("Export of {} failed", name, e);
+                    failures.add(name + ": " + e);
+                } finally {
+                    connections.release();
+                }
+            }));
+            if (formats.contains(Format.XML)) {
+                executor.submit(() -> {
+                    connections.acquireUninterruptibly();
+                    try {
+                        XMLExporter.exportAll(dir.resolve("xml"));
+                    } catch (Exception e) {
+                        failures.add("xml: " + e.getMessage());
+                    } finally {
+                        connections.release();
+                    }
+                });
+            }
+        }
+
+        for (String failure : failures) {
+            log.error("Export failed for {}", failure);
+        }
+        if (log.isInfoEnabled()) {
+            double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+            log.info("Exported {} sources to {} in {} s", sources.size() - failures.size(), dir,
+                    String.format("%.2f", seconds));
+        }
+        return failures.isEmpty();
+    }
+
+    /**
+     * Exports one table of the current database
+     * @param table Name of the table; it must exist in the catalog
+     * @param dir Directory the files are written to
+     * @param formats Formats to write the table in
+     * @return Number of rows exported
+     */
+    public static long exportTable(String table, Path dir, Set<Format> formats) throws SQLException, IOException {
+        try (Connection conn = DatabaseConnector.getConnection()) {
+            // The name goes into the SQL, so only tables the catalog knows are accepted
+            if (SchemaCatalog.get(conn).getColumns(table).isEmpty()) {
+                throw new SQLException("Table " + table + " does not exist");
+            }
+        }
+        return export(table, "SELECT * FROM " + table, dir, formats);
+    }
+
+    /**
+     * Exports the joined root-to-leaf paths, one row per path with the id and attributes of every level
+     * @param dir Directory the files are written to
+     * @param formats Formats to write the paths in
+     * @return Number of rows exported
+     */
+    public static long exportPaths(Path dir, Set<Format> formats) throws SQLException, IOException {
+        SchemaCatalog catalog;
+        try (Connection conn = DatabaseConnector.getConnection()) {
+            catalog = SchemaCatalog.get(conn);
+        }
+        return export(catalog.getLeafEntity() + "_paths", DataRetriever.getPathSql(catalog), dir, formats);
+    }
+
+    private static long export(String name, String sql, Path dir, Set<Format> formats)
+            throws SQLException, IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(dir);
+        try (Connection conn = DatabaseConnector.getConnection()) {
+            boolean autoCommit = conn.getAutoCommit();
+            // PostgreSQL only uses a cursor inside a transaction; MySQL through useCursorFetch
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                    ResultSet.CONCUR_READ_ONLY)) {
+                stmt.setFetchSize(IngestionConfig.getFetchSize());
+                try (ResultSet rs = stmt.executeQuery()) {
+                    ResultSetMetaData meta = rs.getMetaData();
+                    List<String> names = new ArrayList<>();
+                    List<ColumnType> types = new ArrayList<>();
+                    for (int i = 1; i <= meta.getColumnCount(); i++) {
+                        names.add(meta.getColumnLabel(i).toLowerCase());
+                        types.add(ColumnType.fromJdbcType(meta.getColumnType(i), meta.getScale(i)));
+                    }
+
+                    List<RowSink> sinks = new ArrayList<>();
+                    try {
+                        for (Format format : formats) {
+                            if (format == Format.XML) {
+                                continue; // Written from the paths by XMLExporter
+                            }
+                            sinks.add(openSink(format, dir.resolve(name + format.getExtension()), names, types));
+                        }
+                        long rows = 0;
+                        String[] values = new String[names.size()];
+                        while (rs.next()) {
+                            for (int i = 0; i < values.length; i++) {
+                                values[i] = types.get(i).read(rs, i + 1);
+                            }
+                            for (RowSink sink : sinks) {
+                                sink.write(values);
+                            }
+                            rows++;
+                        }
+
+                        if (log.isInfoEnabled()) {
+                            double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+                            log.info("Exported {} rows of {} in {} s ({} rows/s)", rows, name,
+                                    String.format("%.2f", seconds), String.format("%.0f", seconds > 0 ? rows / seconds : 0));
+                        }
+                        return rows;
+                    } finally {
+                        closeAll(sinks);
+                    }
+                }
+            } finally {
+                conn.rollback(); // Nothing was written; ends the read transaction that held the cursor
+                conn.setAutoCommit(autoCommit);
+            }
+        }
+    }
+
+    private static RowSink openSink(Format format, Path file, List<String> names, List<ColumnType> types)
+            throws IOException {
+        OutputStream out = Files.newOutputStream(file);
+        try {
+            return openSink(format, out, names, types);
+        } catch (IOException | RuntimeException e) {
+            try {
+                out.close();
+            } catch (IOException closeFailure) {
+                e.addSuppressed(closeFailure);
+            }
+            throw e;
+        }
+    }
+
+    private static RowSink openSink(Format format, OutputStream out, List<String> names, List<ColumnType> types)
+            throws IOException {
+        if (format == Format.COLUMNAR) {
+            ColumnarWriter writer = new ColumnarWriter(out, names, types, GROUP_SIZE);
+            return new RowSink() {
+                @Override
+                public void write(String[] values) throws IOException {
+                    writer.write(values);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    writer.close();
+                }
+            };
+        }
+
+        Writer csv = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(out, 1 << 16),
+                StandardCharsets.UTF_8), 1 << 16);
+        RowSink sink = new RowSink() {
+            @Override
+            public void write(String[] values) throws IOException {
+                for (int i = 0; i < values.length; i++) {
+                    if (i > 0) {
+                        csv.write(',');
+                    }
+                    if (values[i] != null) {
+                        csv.write(csvField(values[i]));
+                    }
+                }
+                csv.write("\r\n");
+            }
+
+            @Override
+            public void close() throws IOException {
+                csv.close();
+            }
+        };
+        sink.write(names.toArray(new String[0]));
+        return sink;
+    }
+
+    /**
+     * Closes every sink, even when closing one of them fails
+     */
+    private static void closeAll(List<RowSink> sinks) throws IOException {
+        IOException failure = null;
+        for (RowSink sink : sinks) {
+            try {
+                sink.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Quotes a field that holds a separator, quote or line break, as RFC 4180 describes; an empty
+     * string is quoted too, to tell it from NULL
+     */
+    private static String csvField(String value) {
+        if (!value.isEmpty() && value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+}
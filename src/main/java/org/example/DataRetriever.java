@@ -1,8 +1,401 @@
 package org.example;
 
 import java.sql.*;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
+/**
+ * Reads the inserted data back. Besides printing the first rows of every table, it answers path
+ * queries: the relationship table of the leaf entity joined with every entity table along the
+ * hierarchy, so each result is one root-to-leaf path with the attributes of every level. Paths are
+ * read with one query through a server-side cursor and handed out one at a time, so memory use
+ * does not grow with the number of paths.
+ */
 public class DataRetriever {
+
+    /**
+     * Equality filters on the attributes of any level of the hierarchy
+     */
+    public static class PathQuery {
+        private final Map<String, Map<String, String>> filters = new LinkedHashMap<>();
+        private boolean ordered;
+
+        /**
+         * Keeps only paths whose entity at the given level has the given attribute value
+         * @param entity Entity name, e.g. category
+         * @param column Attribute of the entity
+         * @param value Value to match, compared in the column's canonical form
+         * @return This query
+         */
+        public PathQuery where(String entity, String column, String value) {
+            filters.computeIfAbsent(entity, k -> new LinkedHashMap<>()).put(column, value);
+            return this;
+        }
+
+        public Map<String, Map<String, String>> getFilters() {
+            return filters;
+        }
+
+        /**
+         * Returns the paths sorted by the ids of their levels from the root down, so paths that share
+         * a parent come one after another
+         * @return This query
+         */
+        public PathQuery orderByPath() {
+            ordered = true;
+            return this;
+        }
+
+        public boolean isOrdered() {
+            return ordered;
+        }
+    }
+
+    /**
+     * One entity on a path: its id and attribute values
+     */
+    public static class PathLevel {
+        private final String entity;
+        private final int id;
+        private final Map<String, String> attributes;
+
+        PathLevel(String entity, int id, Map<String, String> attributes) {
+            this.entity = entity;
+            this.id = id;
+            this.attributes = attributes;
+        }
+
+        public String getEntity() {
+            return entity;
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public Map<String, String> getAttributes() {
+            return attributes;
+        }
+    }
+
+    /**
+     * A root-to-leaf path of the hierarchy
+     */
+    public static class PathRecord {
+        private final List<PathLevel> levels;
+
+        PathRecord(List<PathLevel> levels) {
+            this.levels = levels;
+        }
+
+        /**
+         * @return The levels from the root down to the leaf
+         */
+        public List<PathLevel> getLevels() {
+            return levels;
+        }
+
+        /**
+         * @return The level of the given entity, or null if it is not on the path
+         */
+        public PathLevel getLevel(String entity) {
+            for (PathLevel level : levels) {
+                if (level.getEntity().equals(entity)) {
+                    return level;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return An attribute of the given entity on the path, or null
+         */
+        public String get(String entity, String column) {
+            PathLevel level = getLevel(entity);
+            return level == null ? null : level.getAttributes().get(column);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            for (PathLevel level : levels) {
+                if (sb.length() > 0) {
+                    sb.append(" > ");
+                }
+                sb.append(level.getEntity()).append('#').append(level.getId()).append(level.getAttributes());
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * Select list and bindings of a path query, worked out once from the catalog
+     */
+    private static class PathPlan {
+        final String sql;
+        final List<ColumnType> filterTypes = new ArrayList<>();
+        final List<String> filterValues = new ArrayList<>();
+        final List<String> entities = new ArrayList<>();             // Root to leaf
+        final List<List<String>> attributes = new ArrayList<>();     // Per entity, without id
+        final List<List<ColumnType>> types = new ArrayList<>();
+
+        PathPlan(SchemaCatalog catalog, PathQuery query) throws SQLException {
+            String leaf = catalog.getLeafEntity();
+            if (leaf == null) {
+                throw new SQLException("The database has no hierarchy to query");
+            }
+            String relationshipTable = leaf + "_relationships";
+            List<String> relationshipColumns = catalog.getColumns(relationshipTable);
+
+            List<String> path = new ArrayList<>(catalog.getHierarchyPath());
+            Collections.reverse(path);
+
+            List<String> select = new ArrayList<>();
+            StringBuilder from = new StringBuilder(" FROM " + relationshipTable + " r");
+            for (int level = 0; level < path.size(); level++) {
+                String entity = path.get(level);
+                if (!relationshipColumns.contains(entity + "_id")) {
+                    continue; // The relationship table does not link this level
+                }
+                String alias = "t" + level;
+                List<String> columns = new ArrayList<>(catalog.getColumns(entity));
+                columns.remove("id");
+
+                entities.add(entity);
+                attributes.add(columns);
+                types.add(catalog.getColumnTypes(entity, columns));
+                select.add("r." + entity + "_id");
+                for (String column : columns) {
+                    select.add(alias + "." + column + " AS " + FactTable.getColumn(entity, column));
+                }
+                from.append(" JOIN ").append(entity).append(' ').append(alias)
+                        .append(" ON ").append(alias).append(".id = r.").append(entity).append("_id");
+            }
+
+            // Filters name tables and columns, so they are checked against the catalog before use
+            List<String> conditions = new ArrayList<>();
+            for (Map.Entry<String, Map<String, String>> filter : query.getFilters().entrySet()) {
+                int level = entities.indexOf(filter.getKey());
+                if (level < 0) {
+                    throw new SQLException("Entity " + filter.getKey() + " is not on the hierarchy path");
+                }
+                for (Map.Entry<String, String> condition : filter.getValue().entrySet()) {
+                    if (!attributes.get(level).contains(condition.getKey())) {
+                        throw new SQLException("Entity " + filter.getKey() + " has no attribute " + condition.getKey());
+                    }
+                    ColumnType type = catalog.getColumnType(filter.getKey(), condition.getKey());
+                    conditions.add("t" + path.indexOf(filter.getKey()) + "." + condition.getKey() + " = ?");
+                    filterTypes.add(type);
+                    filterValues.add(type.normalize(condition.getValue()));
+                }
+            }
+
+            List<String> order = new ArrayList<>();
+            for (String entity : entities) {
+                order.add("r." + entity + "_id");
+            }
+            sql = "SELECT " + String.join(", ", select) + from
+                    + (conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions))
+                    + (query.isOrdered() ? " ORDER BY " + String.join(", ", order) : "");
+        }
+
+        PathRecord read(ResultSet rs) throws SQLException {
+            List<PathLevel> levels = new ArrayList<>(entities.size());
+            int column = 1;
+            for (int level = 0; level < entities.size(); level++) {
+                int id = rs.getInt(column++);
+                List<String> names = attributes.get(level);
+                Map<String, String> values = new LinkedHashMap<>();
+                for (int i = 0; i < names.size(); i++) {
+                    values.put(names.get(i), types.get(level).get(i).read(rs, column++));
+                }
+                levels.add(new PathLevel(entities.get(level), id, values));
+            }
+            return new PathRecord(levels);
+        }
+    }
+
+    /**
+     * @return The query that joins every root-to-leaf path with the attributes of each level, with
+     * columns named as in the fact table
+     */
+    static String getPathSql(SchemaCatalog catalog) throws SQLException {
+        return new PathPlan(catalog, new PathQuery()).sql;
+    }
+
+    /**
+     * Reads every root-to-leaf path that matches a query and hands it to a callback
+     * @param query Filters on any level, or an empty query for all paths
+     * @param consumer Called once per path, in no particular order unless the query is ordered
+     * @return Number of paths read
+     */
+    public static long forEachPath(PathQuery query, Consumer<PathRecord> consumer) throws SQLException {
+        try (Stream<PathRecord> paths = streamPaths(query)) {
+            long[] count = {0};
+            paths.forEach(path -> {
+                consumer.accept(path);
+                count[0]++;
+            });
+            return count[0];
+        } catch (UncheckedSQLException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Streams the root-to-leaf paths that match a query. The stream holds a pooled connection and an
+     * open cursor until it is closed, so use it in a try-with-resources block.
+     * @param query Filters on any level, or an empty query for all paths
+     * @return The paths, read lazily in batches of dm.fetch.size rows
+     */
+    public static Stream<PathRecord> streamPaths(PathQuery query) throws SQLException {
+        Connection conn = DatabaseConnector.getConnection();
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        boolean autoCommit = conn.getAutoCommit();
+        try {
+            PathPlan plan = new PathPlan(SchemaCatalog.get(conn), query);
+
+            // PostgreSQL only uses a cursor inside a transaction; MySQL through useCursorFetch
+            conn.setAutoCommit(false);
+            stmt = conn.prepareStatement(plan.sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            stmt.setFetchSize(IngestionConfig.getFetchSize());
+            for (int i = 0; i < plan.filterValues.size(); i++) {
+                plan.filterTypes.get(i).bind(stmt, i + 1, plan.filterValues.get(i));
+            }
+            rs = stmt.executeQuery();
+
+            ResultSet cursor = rs;
+            PreparedStatement statement = stmt;
+            Spliterator<PathRecord> spliterator = new Spliterators.AbstractSpliterator<>(Long.MAX_VALUE,
+                    Spliterator.ORDERED | Spliterator.NONNULL) {
+                @Override
+                public boolean tryAdvance(Consumer<? super PathRecord> action) {
+                    try {
+                        if (!cursor.next()) {
+                            return false;
+                        }
+                        action.accept(plan.read(cursor));
+                        return true;
+                    } catch (SQLException e) {
+                        throw new UncheckedSQLException(e);
+                    }
+                }
+            };
+            return StreamSupport.stream(spliterator, false)
+                    .onClose(() -> closeQuietly(conn, statement, cursor, autoCommit));
+        } catch (SQLException | RuntimeException e) {
+            closeQuietly(conn, stmt, rs, autoCommit);
+            throw e;
+        }
+    }
+
+    /**
+     * Thrown by path streams when reading the next row fails
+     */
+    public static class UncheckedSQLException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        UncheckedSQLException(SQLException cause) {
+            super(cause);
+        }
+
+        @Override
+        public synchronized SQLException getCause() {
+            return (SQLException) super.getCause();
+        }
+    }
+
+    private static void closeQuietly(Connection conn, Statement stmt, ResultSet rs, boolean autoCommit) {
+        try {
+            if (rs != null) {
+                rs.close();
+            }
+            if (stmt != null) {
+                stmt.close();
+            }
+            conn.rollback(); // Nothing was written; ends the read transaction that held the cursor
+            conn.setAutoCommit(autoCommit);
+        } catch (SQLException e) {
+            // The connection goes back to the pool, which resets it
+        } finally {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                // Already closed
+            }
+        }
+    }
+
+    /**
+     * Finds the rows of an entity above a row, e.g. the categories of a product. Answered from the
+     * in-memory HierarchyIndex, which is loaded on first use, instead of a join per question.
+     * @param entity Entity of the row
+     * @param id Id of the row
+     * @param ancestor Entity above it on the hierarchy path
+     * @return Ids of the ancestor rows, sorted; more than one if the row sits on several paths
+     */
+    public static int[] findAncestorIds(String entity, int id, String ancestor) throws SQLException {
+        HierarchyIndex index = getHierarchyIndex();
+        try {
+            return index.getAncestorIds(entity, id, ancestor);
+        } catch (IllegalArgumentException e) {
+            throw new SQLException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Finds the rows of an entity below a row, e.g. all products under a category, from the
+     * in-memory HierarchyIndex
+     * @param entity Entity of the row
+     * @param id Id of the row
+     * @param descendant Entity below it on the hierarchy path
+     * @return Ids of the descendant rows, sorted
+     */
+    public static int[] findDescendantIds(String entity, int id, String descendant) throws SQLException {
+        HierarchyIndex index = getHierarchyIndex();
+        try {
+            return index.getDescendantIds(entity, id, descendant);
+        } catch (IllegalArgumentException e) {
+            throw new SQLException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Counts the root-to-leaf paths through a row from the in-memory HierarchyIndex
+     * @param entity Entity of the row
+     * @param id Id of the row
+     * @return Number of paths through the row
+     */
+    public static long countPaths(String entity, int id) throws SQLException {
+        HierarchyIndex index = getHierarchyIndex();
+        try {
+            return index.countPaths(entity, id);
+        } catch (IllegalArgumentException e) {
+            throw new SQLException(e.getMessage(), e);
+        }
+    }
+
+    private static HierarchyIndex getHierarchyIndex() throws SQLException {
+        try (Connection conn = DatabaseConnector.getConnection()) {
+            return HierarchyIndex.get(conn);
+        }
+    }
+
+    /**
+     * Prints the first root-to-leaf paths of the hierarchy
+     * @param limit Maximum number of paths to print
+     */
+    public static void displayPaths(int limit) {
+        try (Stream<PathRecord> paths = streamPaths(new PathQuery())) {
+            System.out.println("\nFirst " + limit + " hierarchy paths:");
+            paths.limit(limit).forEach(System.out::println);
+        } catch (SQLException | UncheckedSQLException e) {
+            System.out.println("Error reading hierarchy paths: " + e.getMessage());
+        }
+    }
     public static void displayInsertedTables() {
         String dbName = DatabaseConnector.getDatabaseName();
         try (Connection conn = DatabaseConnector.getConnection()) {
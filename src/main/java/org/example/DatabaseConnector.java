@@ -1,57 +1,37 @@
 package org.example;
 
-import com.zaxxer.hikari.HikariConfig;
-import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.sql.*;
-import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 public class DatabaseConnector {
-    private static final String URL_PREFIX = "jdbc:mysql://localhost:3306/";
-    private static final String USER = "xsduser";
-    private static final String PASSWORD = "1234";
-    private static String databaseName;
-    private static HikariDataSource dataSource;
+    private static final Logger log = LoggerFactory.getLogger(DatabaseConnector.class);
+
+    private static volatile String databaseName;
 
     /**
-     * Initialize connection pool for the current database
+     * Gets the URL of the database server from dm.db.url or the dialect's default
+     * @return The URL, without a database name
      */
-    private static synchronized void initializePool() {
-        if (dataSource == null && databaseName != null) {
-            HikariConfig config = new HikariConfig();
-            config.setJdbcUrl(URL_PREFIX + databaseName);
-            config.setUsername(USER);
-            config.setPassword(PASSWORD);
-
-            // Connection pool settings
-            config.setMaximumPoolSize(10);
-            config.setMinimumIdle(2);
-            config.setIdleTimeout(30000);
-            config.setConnectionTimeout(10000);
-            config.addDataSourceProperty("cachePrepStmts", "true");
-            config.addDataSourceProperty("prepStmtCacheSize", "250");
-            config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
-
-            // Add these lines for connection validation
-            config.setConnectionTestQuery("SELECT 1");
-            config.setValidationTimeout(5000);
-
-            dataSource = new HikariDataSource(config);
-
-            System.out.println("Connection pool initialized for database: " + databaseName);
+    static String getServerUrl() {
+        String url = IngestionConfig.getServerUrl();
+        if (url == null) {
+            return SqlDialect.current().getDefaultServerUrl();
         }
+        return url.endsWith("/") ? url : url + "/";
+    }
+
+    private static Connection getAdminConnection() throws SQLException {
+        return ConnectionPools.getAdminConnection();
     }
 
     /**
-     * Close connection pool when application is shutting down
+     * Close all connection pools when application is shutting down
      */
     public static void closePool() {
-        if (dataSource != null && !dataSource.isClosed()) {
-            dataSource.close();
-            System.out.println("Connection pool closed");
-        }
+        ConnectionPools.closeAll();
+        log.info("Connection pools closed");
     }
 
     /**
@@ -60,19 +40,10 @@ public class DatabaseConnector {
      * @return true if the database exists, false otherwise
      */
     public static boolean checkDatabaseExists(String dbName) {
-        try (Connection conn = DriverManager.getConnection(URL_PREFIX, USER, PASSWORD);
-             Statement stmt = conn.createStatement()) {
-
-            ResultSet resultSet = conn.getMetaData().getCatalogs();
-            while (resultSet.next()) {
-                String existingDb = resultSet.getString(1);
-                if (existingDb.equalsIgnoreCase(dbName)) {
-                    return true;
-                }
-            }
-            return false;
+        try (Connection conn = getAdminConnection()) {
+            return SqlDialect.current().databaseExists(conn, dbName);
         } catch (SQLException e) {
-            e.printStackTrace();
+            log.error("Could not check whether database {} exists", dbName, e);
             return false;
         }
     }
@@ -85,37 +56,39 @@ public class DatabaseConnector {
     public static boolean createDatabase(String dbName) {
         boolean exists = checkDatabaseExists(dbName);
         if (exists) {
-            System.out.println("Database '" + dbName + "' already exists. Using existing database.");
+            log.info("Database '{}' already exists. Using existing database.", dbName);
             setDatabaseName(dbName);
             return true;
         }
 
-        try (Connection conn = DriverManager.getConnection(URL_PREFIX, USER, PASSWORD);
+        try (Connection conn = getAdminConnection();
              Statement stmt = conn.createStatement()) {
 
             stmt.executeUpdate("CREATE DATABASE " + dbName);
-            System.out.println("Database created successfully: " + dbName);
+            log.info("Database created successfully: {}", dbName);
             setDatabaseName(dbName);
             return true;
         } catch (SQLException e) {
-            System.out.println("Database creation failed: " + e.getMessage());
+            log.error("Database creation failed: {}", e.getMessage());
             return false;
         }
     }
 
     /**
-     * Sets the current database name and initializes the connection pool
+     * Sets the current database name. The database's pool is opened on first use and kept open
+     * when another database becomes current, so switching back reuses its connections.
      * @param dbName The database name
      */
     public static void setDatabaseName(String dbName) {
-        // If changing database name, close existing pool
-        if (dataSource != null && databaseName != null && !databaseName.equals(dbName)) {
-            closePool();
-            dataSource = null;
-        }
-
         databaseName = dbName;
-        initializePool();
+    }
+
+    /**
+     * Gets the maximum number of pooled connections
+     * @return The pool size
+     */
+    public static int getMaximumPoolSize() {
+        return ConnectionPools.getPoolSize();
     }
 
     /**
@@ -127,141 +100,37 @@ public class DatabaseConnector {
     }
 
     /**
-     * Gets a connection from the pool
+     * Gets a connection to the current database from its pool
      * @return A database connection
      * @throws SQLException If connection fails
      */
     public static Connection getConnection() throws SQLException {
-        if (dataSource == null) {
-            initializePool();
-        }
-
-        if (dataSource != null) {
-            return dataSource.getConnection();
-        } else {
-            // Fallback to direct connection if pool isn't available
-            return DriverManager.getConnection(URL_PREFIX + databaseName, USER, PASSWORD);
+        if (databaseName == null) {
+            throw new SQLException("No database selected");
         }
+        return ConnectionPools.getConnection(databaseName);
     }
 
     /**
-     * Executes a list of SQL statements, checking for duplicates on entity_hierarchy inserts
-     * @param sqlStatements List of SQL statements to execute
+     * Brings the tables of the current database in line with a schema model and writes its hierarchy
+     * metadata. The model also becomes the source of the hierarchy for SchemaCatalog.
+     * @param model The compiled meta-model
+     * @return true if the schema is up to date
      */
-    public static void executeSQL(List<String> sqlStatements) {
-        try (Connection conn = getConnection();
-             Statement stmt = conn.createStatement()) {
-
-            for (String sql : sqlStatements) {
-                // Special handling for entity_hierarchy inserts to avoid duplicates
-                if (sql.toUpperCase().startsWith("INSERT INTO ENTITY_HIERARCHY")) {
-                    handleEntityHierarchyInsert(conn, sql);
-                    continue;
-                }
-
-                // Extract table name from CREATE TABLE statement
-                String tableName = null;
-                if (sql.toUpperCase().startsWith("CREATE TABLE")) {
-                    tableName = extractTableName(sql);
-                }
-
-                // Execute other SQL statements
-                try {
-                    stmt.executeUpdate(sql);
-                    System.out.println("SQL statement executed successfully: " +
-                            sql.substring(0, Math.min(sql.length(), 50)) + (sql.length() > 50 ? "..." : ""));
-                } catch (SQLException e) {
-                    // Handle table already exists error
-                    if (e.getErrorCode() == 1050 && tableName != null) {
-                        System.out.println("Table '" + tableName + "' already exists. Skipping creation.");
-                    } else {
-                        System.out.println("SQL execution failed: " + e.getMessage());
-                    }
-                    // Continue with the next statement even if this one failed
-                }
-            }
-        } catch (SQLException e) {
-            System.out.println("Database operation failed: " + e.getMessage());
-            e.printStackTrace();
-        }
+    public static boolean applySchema(SchemaModel model) {
+        return SchemaApplier.apply(model);
     }
 
     /**
-     * Extract table name from CREATE TABLE statement
+     * Tells whether a statement changes the metadata cached by SchemaCatalog
      * @param sql SQL statement
-     * @return table name or empty string if not found
-     */
-    private static String extractTableName(String sql) {
-        Pattern pattern = Pattern.compile("CREATE\\s+TABLE\\s+(?:`([^`]+)`|([^\\s(]+))", Pattern.CASE_INSENSITIVE);
-        Matcher matcher = pattern.matcher(sql);
-        if (matcher.find()) {
-            // Return the first non-null group (either backtick quoted or unquoted table name)
-            return matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
-        }
-        return "";
-    }
-
-    /**
-     * Handles inserts into entity_hierarchy with duplicate prevention
-     * @param conn Database connection
-     * @param sql SQL insert statement
+     * @return true for DDL and for writes to entity_hierarchy
      */
-    private static void handleEntityHierarchyInsert(Connection conn, String sql) throws SQLException {
-        // Extract values using regex
-        Pattern pattern = Pattern.compile("VALUES\\s*\\(\\s*'([^']*)'\\s*,\\s*'([^']*)'\\s*,\\s*'([^']*)'\\s*\\)",
-                Pattern.CASE_INSENSITIVE);
-        Matcher matcher = pattern.matcher(sql);
-
-        if (matcher.find() && matcher.groupCount() >= 3) {
-            String parentEntity = matcher.group(1);
-            String childEntity = matcher.group(2);
-            String relationName = matcher.group(3);
-
-            // Check if this hierarchy relationship already exists
-            if (!hierarchyRelationExists(conn, parentEntity, childEntity)) {
-                // Insert the new relationship
-                try (PreparedStatement pstmt = conn.prepareStatement(
-                        "INSERT INTO entity_hierarchy (parent_entity, child_entity, relation_name) VALUES (?, ?, ?)")) {
-                    pstmt.setString(1, parentEntity);
-                    pstmt.setString(2, childEntity);
-                    pstmt.setString(3, relationName);
-                    pstmt.executeUpdate();
-                    System.out.println("Added hierarchy relation: " + parentEntity + " -> " + childEntity);
-                }
-            } else {
-                System.out.println("Hierarchy relation already exists: " + parentEntity + " -> " + childEntity + ". Skipping.");
-            }
-        } else {
-            // If regex failed, fall back to direct execution
-            try (Statement stmt = conn.createStatement()) {
-                stmt.executeUpdate(sql);
-                System.out.println("SQL statement executed successfully: " +
-                        sql.substring(0, Math.min(sql.length(), 50)) + (sql.length() > 50 ? "..." : ""));
-            }
-        }
-    }
-
-    /**
-     * Checks if a hierarchy relationship already exists
-     * @param conn Database connection
-     * @param parentEntity Parent entity name
-     * @param childEntity Child entity name
-     * @return true if relationship exists, false otherwise
-     */
-    private static boolean hierarchyRelationExists(Connection conn, String parentEntity, String childEntity)
-            throws SQLException {
-        try (PreparedStatement stmt = conn.prepareStatement(
-                "SELECT COUNT(*) FROM entity_hierarchy WHERE parent_entity = ? AND child_entity = ?")) {
-            stmt.setString(1, parentEntity);
-            stmt.setString(2, childEntity);
-
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getInt(1) > 0;
-                }
-            }
-        }
-        return false;
+    private static boolean changesSchema(String sql) {
+        String upper = sql.trim().toUpperCase();
+        return upper.startsWith("CREATE") || upper.startsWith("ALTER") || upper.startsWith("DROP")
+                || upper.startsWith("RENAME") || upper.startsWith("TRUNCATE")
+                || upper.contains("ENTITY_HIERARCHY");
     }
 
     /**
@@ -270,12 +139,18 @@ public class DatabaseConnector {
      * @return true if executed successfully, false otherwise
      */
     public static boolean executeSingleSQL(String sql) {
+        if (changesSchema(sql)) {
+            SchemaCatalog.invalidate();
+            HierarchyIndex.clear();
+        }
         try (Connection conn = getConnection();
              Statement stmt = conn.createStatement()) {
+            long start = System.nanoTime();
             stmt.executeUpdate(sql);
+            IngestionMetrics.roundTrip("sql", System.nanoTime() - start);
             return true;
         } catch (SQLException e) {
-            System.out.println("SQL execution failed: " + e.getMessage());
+            log.error("SQL execution failed: {}", e.getMessage());
             return false;
         }
     }
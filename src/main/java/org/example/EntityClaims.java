@@ -0,0 +1,102 @@
+package org.example;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Coordinates entity inserts between parallel ingestion workers. A worker claims an entity's
+ * attribute values before inserting it; another worker that meets the same values waits until the
+ * owner has committed and reuses its id, so no entity is inserted twice and nobody references a
+ * row that another transaction has not committed yet.
+ */
+public class EntityClaims {
+
+    /**
+     * A claim on one set of attribute values of one entity table
+     */
+    public static class Claim {
+        private final BatchWriter owner;
+        private final String table;
+        private final List<String> columns;
+        private final List<String> values;
+        private final CompletableFuture<Integer> committedId = new CompletableFuture<>();
+        private BatchWriter.RowId rowId;
+
+        private Claim(BatchWriter owner, String table, List<String> columns, List<String> values) {
+            this.owner = owner;
+            this.table = table;
+            this.columns = columns;
+            this.values = values;
+        }
+
+        public boolean isOwnedBy(BatchWriter writer) {
+            return owner == writer;
+        }
+
+        /**
+         * @return The id of the owner's row, or null if the owner has not written it yet
+         */
+        public BatchWriter.RowId getRowId() {
+            return rowId;
+        }
+
+        /**
+         * Blocks until the owner commits or rolls back
+         * @return The committed id, or null if the owner rolled back and the caller should claim again
+         */
+        public Integer await() {
+            return committedId.join();
+        }
+    }
+
+    private final ConcurrentHashMap<List<String>, Claim> claims = new ConcurrentHashMap<>();
+
+    /**
+     * Claims the dedup key of an entity for a writer
+     * @param columns Dedup columns of the table
+     * @param values Key values, null for columns the element does not set
+     * @return A new claim owned by the writer, or the claim another writer (or this one) already holds
+     */
+    public Claim claim(String table, List<String> columns, List<String> values, BatchWriter writer) {
+        return claims.computeIfAbsent(claimKey(table, columns, values),
+                k -> new Claim(writer, table, List.copyOf(columns), Collections.unmodifiableList(new ArrayList<>(values))));
+    }
+
+    /**
+     * Attaches the row the owner wrote (or queued) for its claim
+     */
+    public void attach(Claim claim, BatchWriter.RowId rowId) {
+        claim.rowId = rowId;
+    }
+
+    /**
+     * Publishes a committed claim: records the id in the dedup index and wakes up waiting workers
+     */
+    public void commit(Claim claim, int id) {
+        EntityDedupIndex index = EntityDedupIndex.peek(claim.table);
+        if (index != null) {
+            index.put(claim.columns, claim.values, id);
+        }
+        claims.remove(claimKey(claim.table, claim.columns, claim.values), claim);
+        claim.committedId.complete(id);
+    }
+
+    /**
+     * Drops a claim whose row was rolled back; waiting workers will claim the values again
+     */
+    public void abandon(Claim claim) {
+        claims.remove(claimKey(claim.table, claim.columns, claim.values), claim);
+        claim.committedId.complete(null);
+    }
+
+    private static List<String> claimKey(String table, List<String> columns, List<String> values) {
+        List<String> key = new ArrayList<>(1 + columns.size() + values.size());
+        key.add(table);
+        key.addAll(columns);
+        key.addAll(values);
+        return key;
+    }
+}
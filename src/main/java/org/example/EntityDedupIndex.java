@@ -0,0 +1,149 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory map from an entity's dedup key to its id, one per entity table. The key is the natural
+ * key, or every attribute column when the table has none (SchemaCatalog.getDedupColumns).
+ * Each index is warmed from its table on first use and updated on every insert, so the
+ * ingestion only has to query the database when a value combination is not indexed.
+ * Indexes are bounded (dm.dedup.capacity) and evict the least recently used entries.
+ */
+public class EntityDedupIndex {
+    private static final Logger log = LoggerFactory.getLogger(EntityDedupIndex.class);
+
+    private static final Map<String, EntityDedupIndex> indexes = new ConcurrentHashMap<>();
+
+    private final String table;
+    private final List<String> columns;
+    private final int capacity;
+    private final LinkedHashMap<List<String>, Integer> ids;
+
+    // True while every row of the table is held in the index, so a miss means the row does not exist
+    private boolean complete = true;
+
+    private EntityDedupIndex(String table, List<String> columns, int capacity) {
+        this.table = table;
+        this.columns = List.copyOf(columns);
+        this.capacity = capacity;
+        this.ids = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<String>, Integer> eldest) {
+                if (size() > EntityDedupIndex.this.capacity) {
+                    complete = false;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Gets the index for an entity table, loading it from the table on first use
+     * @param conn Connection used to warm the index
+     * @param table Entity table name
+     * @param columns Dedup columns of the table
+     * @return The index, or null if indexing is disabled
+     */
+    public static EntityDedupIndex forTable(Connection conn, String table, List<String> columns) throws SQLException {
+        int capacity = IngestionConfig.getDedupCapacity();
+        if (capacity <= 0) {
+            return null;
+        }
+
+        String key = indexKey(table);
+        EntityDedupIndex index = indexes.get(key);
+        if (index == null) {
+            EntityDedupIndex loaded = new EntityDedupIndex(table, columns, capacity);
+            loaded.warm(conn);
+            index = indexes.putIfAbsent(key, loaded);
+            if (index == null) {
+                index = loaded;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Gets an index that has already been loaded
+     * @return The index, or null if the table has not been indexed yet
+     */
+    public static EntityDedupIndex peek(String table) {
+        return indexes.get(indexKey(table));
+    }
+
+    /**
+     * Drops all indexes, e.g. after a rollback left ids in them that were never committed
+     */
+    public static void clear() {
+        indexes.clear();
+    }
+
+    /**
+     * Looks up the id of an entity
+     * @param columns Dedup columns of the table
+     * @param values Key values, null for columns the element does not set
+     * @return The id, or null if the key is not in the index
+     */
+    public synchronized Integer get(List<String> columns, List<String> values) {
+        if (!columns.equals(this.columns)) {
+            return null;
+        }
+        return ids.get(values);
+    }
+
+    /**
+     * Tells whether a miss from get can be trusted, i.e. the table has no such row either
+     * @param columns Dedup columns of the table
+     * @return true if the index holds every row
+     */
+    public synchronized boolean covers(List<String> columns) {
+        return complete && columns.equals(this.columns);
+    }
+
+    /**
+     * Records the id of an entity that was found or inserted
+     */
+    public synchronized void put(List<String> columns, List<String> values, int id) {
+        if (columns.equals(this.columns)) {
+            ids.put(Collections.unmodifiableList(new ArrayList<>(values)), id);
+        }
+    }
+
+    private synchronized void warm(Connection conn) throws SQLException {
+        if (columns.isEmpty()) {
+            return;
+        }
+
+        // Values are read in the same canonical form the inserter normalizes attributes to
+        List<ColumnType> types = SchemaCatalog.get(conn).getColumnTypes(table, columns);
+        String sql = "SELECT id, " + String.join(", ", columns) + " FROM " + table;
+        try (Statement stmt = conn.createStatement()) {
+            stmt.setFetchSize(1000);
+            try (ResultSet rs = stmt.executeQuery(sql)) {
+                while (rs.next()) {
+                    if (ids.size() >= capacity) {
+                        complete = false;
+                        break;
+                    }
+                    List<String> values = new ArrayList<>(columns.size());
+                    for (int i = 0; i < columns.size(); i++) {
+                        values.add(types.get(i).read(rs, i + 2));
+                    }
+                    ids.put(Collections.unmodifiableList(values), rs.getInt(1));
+                }
+            }
+        }
+        log.info("Loaded {} {} rows into the dedup index{}", ids.size(), table,
+                complete ? "" : " (partial, table exceeds dm.dedup.capacity)");
+    }
+
+    private static String indexKey(String table) {
+        return DatabaseConnector.getDatabaseName() + "." + table;
+    }
+}
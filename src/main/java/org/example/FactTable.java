@@ -0,0 +1,202 @@
+package org.example;
+
+import java.util.*;
+
+/**
+ * Denormalized table with one row per leaf path: the *_id column of every level, as in the
+ * relationship table, followed by the attributes of every level as &lt;entity&gt;_&lt;attribute&gt; columns.
+ * Dashboard queries read it with a single table scan instead of joining the relationship table with
+ * every entity table. XMLDataInserter appends the row of each new relationship in the same batch and
+ * transaction, so the table never has to be rebuilt; it is filled from the relationship table only
+ * when it is first created or after a bulk load.
+ */
+public class FactTable {
+    private final String table;
+    private final List<String> path;
+    private final Map<String, List<String>> attributes;
+
+    private FactTable(String table, List<String> path, Map<String, List<String>> attributes) {
+        this.table = table;
+        this.path = List.copyOf(path);
+        this.attributes = attributes;
+    }
+
+    /**
+     * @return Name of the fact table of a leaf entity
+     */
+    public static String getTableName(String leafEntity) {
+        return leafEntity + "_facts";
+    }
+
+    /**
+     * @return Column of the fact table holding an attribute of one level
+     */
+    public static String getColumn(String entity, String attribute) {
+        return entity + "_" + attribute;
+    }
+
+    /**
+     * Describes the fact table a model defines
+     * @param model The compiled meta-model
+     * @return The fact table, or null if the model has no hierarchy
+     */
+    static FactTable forModel(SchemaModel model) {
+        if (model.getLeafEntity() == null) {
+            return null;
+        }
+        Map<String, List<String>> attributes = new LinkedHashMap<>();
+        for (String entity : model.getHierarchyPath()) {
+            List<String> names = new ArrayList<>();
+            for (SchemaModel.Attribute attr : getAttributes(model, entity)) {
+                names.add(attr.getName());
+            }
+            attributes.put(entity, names);
+        }
+        return new FactTable(getTableName(model.getLeafEntity()), model.getHierarchyPath(), attributes);
+    }
+
+    /**
+     * Describes the fact table of the current database; attributes added to an entity table after
+     * the fact table was created are left out until the fact table has their column too
+     * @param catalog Catalog of the current database
+     * @return The fact table, or null if the database has none
+     */
+    static FactTable forCatalog(SchemaCatalog catalog) {
+        if (catalog.getLeafEntity() == null) {
+            return null;
+        }
+        String table = getTableName(catalog.getLeafEntity());
+        List<String> factColumns = catalog.getColumns(table);
+        if (factColumns.isEmpty()) {
+            return null;
+        }
+
+        List<String> path = catalog.getHierarchyPath();
+        Map<String, List<String>> attributes = new LinkedHashMap<>();
+        for (String entity : path) {
+            if (!factColumns.contains(entity + "_id")) {
+                return null; // Built for another hierarchy
+            }
+            List<String> names = new ArrayList<>();
+            for (String column : catalog.getColumns(entity)) {
+                if (!column.equals("id") && factColumns.contains(getColumn(entity, column))) {
+                    names.add(column);
+                }
+            }
+            attributes.put(entity, names);
+        }
+        return new FactTable(table, path, attributes);
+    }
+
+    /**
+     * @return Attributes of an entity of the model, empty if it is only named in a relation
+     */
+    static List<SchemaModel.Attribute> getAttributes(SchemaModel model, String entity) {
+        SchemaModel.Entity definition = model.getEntity(entity);
+        return definition != null ? definition.getAttributes() : Collections.emptyList();
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    /**
+     * @return The *_id columns, leaf first like the relationship table
+     */
+    public List<String> getIdColumns() {
+        List<String> columns = new ArrayList<>();
+        for (String entity : path) {
+            columns.add(entity + "_id");
+        }
+        return columns;
+    }
+
+    /**
+     * @return Attribute columns per entity of the path, keyed by entity name
+     */
+    public Map<String, List<String>> getAttributes() {
+        return attributes;
+    }
+
+    /**
+     * @return The *_id columns followed by the attribute columns of every level
+     */
+    public List<String> getColumns() {
+        List<String> columns = getIdColumns();
+        attributes.forEach((entity, names) -> names.forEach(name -> columns.add(getColumn(entity, name))));
+        return columns;
+    }
+
+    /**
+     * INSERT that appends the row of one path, copying the attributes from the entity rows. It takes
+     * the id of every level as a parameter, in the order of getIdColumns, and adds nothing if the path
+     * already has a row. The SELECT is wrapped in a derived table so that an insert-ignore clause added
+     * to it only sees the fact table's id column.
+     */
+    public String getAppendSql() {
+        List<String> select = new ArrayList<>();
+        List<String> from = new ArrayList<>();
+        List<String> where = new ArrayList<>();
+        List<String> existing = new ArrayList<>();
+        for (int level = 0; level < path.size(); level++) {
+            String entity = path.get(level);
+            select.add("t" + level + ".id AS " + entity + "_id");
+            from.add(entity + " t" + level);
+            where.add("t" + level + ".id = ?");
+            existing.add("f." + entity + "_id = t" + level + ".id");
+        }
+        addAttributeColumns(select);
+        where.add("NOT EXISTS (SELECT 1 FROM " + table + " f WHERE " + String.join(" AND ", existing) + ")");
+
+        String columns = String.join(", ", getColumns());
+        return "INSERT INTO " + table + " (" + columns + ") SELECT " + columns + " FROM (SELECT "
+                + String.join(", ", select) + " FROM " + String.join(", ", from)
+                + " WHERE " + String.join(" AND ", where) + ") src";
+    }
+
+    /**
+     * INSERT that fills the table from the relationship table, for a fact table that is still empty
+     */
+    public String getBackfillSql() {
+        String relationshipTable = path.get(0) + "_relationships";
+        List<String> select = new ArrayList<>();
+        StringBuilder from = new StringBuilder(relationshipTable + " r");
+        for (int level = 0; level < path.size(); level++) {
+            String entity = path.get(level);
+            select.add("r." + entity + "_id");
+            from.append(" JOIN ").append(entity).append(" t").append(level)
+                    .append(" ON t").append(level).append(".id = r.").append(entity).append("_id");
+        }
+        addAttributeColumns(select);
+
+        return "INSERT INTO " + table + " (" + String.join(", ", getColumns()) + ") SELECT "
+                + String.join(", ", select) + " FROM " + from;
+    }
+
+    /**
+     * Picks the ids of the append statement out of a relationship row
+     * @param columns Columns of the relationship row
+     * @param values Ids of the relationship row, Integers or RowIds
+     * @return The ids in the order of getIdColumns, or null if the row lacks a level
+     */
+    public List<Object> getAppendValues(List<String> columns, List<Object> values) {
+        List<Object> ids = new ArrayList<>(path.size());
+        for (String column : getIdColumns()) {
+            int i = columns.indexOf(column);
+            if (i < 0) {
+                return null;
+            }
+            ids.add(values.get(i));
+        }
+        return ids;
+    }
+
+    private void addAttributeColumns(List<String> select) {
+        for (int level = 0; level < path.size(); level++) {
+            String entity = path.get(level);
+            for (String name : attributes.get(entity)) {
+                select.add("t" + level + "." + name + " AS " + getColumn(entity, name));
+            }
+        }
+    }
+}
@@ -0,0 +1,674 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of the root-to-leaf paths of the hierarchy, loaded in one ordered scan of the
+ * relationship table. The paths form a tree with one node per distinct path prefix, stored level by
+ * level in int arrays in compressed sparse row layout: every node has its entity id, the position of
+ * its parent on the level above and the position of its first child on the level below. The children
+ * of a node, and all the leaves below it, are contiguous, so an ancestor is one array read per level
+ * and the descendants are a range. An entity row on several paths, such as a product listed in two
+ * subcategories, has a node on each.
+ * <p>
+ * BatchWriter hands every committed new path to the loaded index, which keeps them in an unsorted
+ * tail, indexed by entity id per level, and merges the tail into the arrays once it outgrows an
+ * eighth of them. While an index is being loaded the paths committed in the meantime are buffered
+ * and replayed once the scan is done, so the scan itself runs without holding the lock the writers
+ * publish under.
+ */
+public class HierarchyIndex {
+    private static final Logger log = LoggerFactory.getLogger(HierarchyIndex.class);
+
+    private static final Map<String, HierarchyIndex> indexes = new ConcurrentHashMap<>();
+
+    // Guarded by HierarchyIndex.class, like the publishing of paths
+    private static final Map<String, Loading> loads = new HashMap<>();
+
+    /**
+     * Tail length below which appended paths are never merged
+     */
+    private static final int MIN_TAIL = 4096;
+
+    private final List<String> levels;
+    private final int width;
+
+    // Per level, root first: entity id, parent position and first child position of each node;
+    // firstChild has a closing entry, so the children of node n are firstChild[n] .. firstChild[n + 1]
+    private int[][] ids;
+    private int[][] parents;
+    private int[][] firstChild;
+
+    // Per level, the nodes of entity id i are idNodes[idStart[i]] .. idNodes[idStart[i + 1]]
+    private int[][] idStart;
+    private int[][] idNodes;
+
+    // Paths appended since the arrays were built, width ids each
+    private int[] tail = new int[0];
+    private int tailPaths;
+
+    // Per level, the tail paths through each entity id, so queries never scan the whole tail
+    private final List<Map<Integer, IntList>> tailIds = new ArrayList<>();
+
+    private HierarchyIndex(List<String> levels) {
+        this.levels = List.copyOf(levels);
+        this.width = levels.size();
+        for (int l = 0; l < width; l++) {
+            tailIds.add(new HashMap<>());
+        }
+    }
+
+    /**
+     * Gets the index of the current database, loading it from the relationship table on first use
+     * @param conn Connection used to load the index
+     * @return The index
+     */
+    public static HierarchyIndex get(Connection conn) throws SQLException {
+        List<String> levels = getLevels(SchemaCatalog.get(conn));
+        if (levels.isEmpty()) {
+            throw new SQLException("The database has no hierarchy to index");
+        }
+
+        String key = DatabaseConnector.getDatabaseName();
+        HierarchyIndex index = indexes.get(key);
+        if (index != null && index.levels.equals(levels)) {
+            return index;
+        }
+
+        // Registered before the scan starts, so every path committed after the scan's snapshot is
+        // published into the buffer; paths the scan saw as well are skipped by append
+        Loading loading;
+        boolean loader = false;
+        synchronized (HierarchyIndex.class) {
+            index = indexes.get(key);
+            if (index != null && index.levels.equals(levels)) {
+                return index;
+            }
+            loading = loads.get(key);
+            if (loading == null || !loading.levels.equals(levels)) {
+                loading = new Loading(levels);
+                loads.put(key, loading);
+                loader = true;
+            }
+        }
+        if (!loader) {
+            return loading.await();
+        }
+
+        index = new HierarchyIndex(levels);
+        try {
+            index.load(conn, SchemaCatalog.get(conn).getLeafEntity() + "_relationships");
+        } catch (SQLException | RuntimeException e) {
+            synchronized (HierarchyIndex.class) {
+                loads.remove(key, loading);
+            }
+            loading.result.completeExceptionally(e);
+            throw e;
+        }
+        synchronized (HierarchyIndex.class) {
+            // Not kept if clear() was called during the scan
+            if (loads.remove(key, loading)) {
+                index.append(loading.paths.values, loading.paths.size / index.width);
+                indexes.put(key, index);
+            }
+        }
+        loading.result.complete(index);
+        return index;
+    }
+
+    /**
+     * An index being loaded, with the paths committed while its scan runs
+     */
+    private static class Loading {
+        final List<String> levels;
+        final IntList paths = new IntList();
+        final CompletableFuture<HierarchyIndex> result = new CompletableFuture<>();
+
+        Loading(List<String> levels) {
+            this.levels = levels;
+        }
+
+        HierarchyIndex await() throws SQLException {
+            try {
+                return result.join();
+            } catch (CompletionException e) {
+                throw new SQLException("Loading the hierarchy index failed", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * @return true if the index of the current database is loaded and kept current by the writers
+     */
+    public static boolean isLoaded() {
+        String key = DatabaseConnector.getDatabaseName();
+        if (indexes.containsKey(key)) {
+            return true;
+        }
+        synchronized (HierarchyIndex.class) {
+            return loads.containsKey(key);
+        }
+    }
+
+    /**
+     * Drops all indexes, e.g. after the relationship table was changed without BatchWriter
+     */
+    public static void clear() {
+        synchronized (HierarchyIndex.class) {
+            indexes.clear();
+            loads.clear();
+        }
+    }
+
+    /**
+     * @return Entities the relationship table links, root first
+     */
+    private static List<String> getLevels(SchemaCatalog catalog) {
+        String leaf = catalog.getLeafEntity();
+        if (leaf == null) {
+            return Collections.emptyList();
+        }
+        List<String> relationshipColumns = catalog.getColumns(leaf + "_relationships");
+        List<String> path = new ArrayList<>(catalog.getHierarchyPath());
+        Collections.reverse(path);
+        List<String> levels = new ArrayList<>();
+        for (String entity : path) {
+            if (relationshipColumns.contains(entity + "_id")) {
+                levels.add(entity);
+            }
+        }
+        return levels;
+    }
+
+    /**
+     * @return Entities of the index, root first
+     */
+    public List<String> getLevels() {
+        return levels;
+    }
+
+    /**
+     * @return Number of distinct root-to-leaf paths
+     */
+    public synchronized long getPathCount() {
+        return ids[width - 1].length + tailPaths;
+    }
+
+    /**
+     * Finds the rows of an entity above a row of another entity
+     * @param entity Entity of the row
+     * @param id Id of the row
+     * @param ancestor Entity above it
+     * @return Ids of the ancestor rows, sorted; more than one if the row sits on several paths
+     */
+    public synchronized int[] getAncestorIds(String entity, int id, String ancestor) {
+        int level = levelOf(entity);
+        int target = levelOf(ancestor);
+        if (target >= level) {
+            throw new IllegalArgumentException(ancestor + " is not above " + entity + " in the hierarchy");
+        }
+        IntList found = new IntList();
+        for (int i = firstNode(level, id); i < lastNode(level, id); i++) {
+            int node = idNodes[level][i];
+            for (int l = level; l > target; l--) {
+                node = parents[l][node];
+            }
+            found.add(ids[target][node]);
+        }
+        IntList tailed = tailIds.get(level).get(id);
+        for (int i = 0; tailed != null && i < tailed.size; i++) {
+            found.add(tail[tailed.values[i] * width + target]);
+        }
+        return found.distinctIds();
+    }
+
+    /**
+     * Finds the rows of an entity below a row of another entity
+     * @param entity Entity of the row
+     * @param id Id of the row
+     * @param descendant Entity below it
+     * @return Ids of the descendant rows, sorted
+     */
+    public synchronized int[] getDescendantIds(String entity, int id, String descendant) {
+        int level = levelOf(entity);
+        int target = levelOf(descendant);
+        if (target <= level) {
+            throw new IllegalArgumentException(descendant + " is not below " + entity + " in the hierarchy");
+        }
+        IntList found = new IntList();
+        for (int i = firstNode(level, id); i < lastNode(level, id); i++) {
+            int node = idNodes[level][i];
+            int start = descend(level, node, target);
+            int end = descend(level, node + 1, target);
+            found.addAll(ids[target], start, end);
+        }
+        IntList tailed = tailIds.get(level).get(id);
+        for (int i = 0; tailed != null && i < tailed.size; i++) {
+            found.add(tail[tailed.values[i] * width + target]);
+        }
+        return found.distinctIds();
+    }
+
+    /**
+     * Counts the root-to-leaf paths through a row
+     * @param entity Entity of the row
+     * @param id Id of the row
+     * @return Number of paths, i.e. leaf occurrences below the row, or of the row itself for a leaf
+     */
+    public synchronized long countPaths(String entity, int id) {
+        int level = levelOf(entity);
+        long count = 0;
+        for (int i = firstNode(level, id); i < lastNode(level, id); i++) {
+            int node = idNodes[level][i];
+            count += descend(level, node + 1, width - 1) - descend(level, node, width - 1);
+        }
+        IntList tailed = tailIds.get(level).get(id);
+        return tailed != null ? count + tailed.size : count;
+    }
+
+    /**
+     * Position on a lower level of the first descendant of a node, or of the first node after its
+     * descendants for the position after the node
+     */
+    private int descend(int level, int position, int target) {
+        for (int l = level; l < target; l++) {
+            position = firstChild[l][position];
+        }
+        return position;
+    }
+
+    private int levelOf(String entity) {
+        int level = levels.indexOf(entity);
+        if (level < 0) {
+            throw new IllegalArgumentException("Entity " + entity + " is not on the hierarchy path");
+        }
+        return level;
+    }
+
+    private int firstNode(int level, int id) {
+        return id > 0 && id < idStart[level].length - 1 ? idStart[level][id] : 0;
+    }
+
+    private int lastNode(int level, int id) {
+        return id > 0 && id < idStart[level].length - 1 ? idStart[level][id + 1] : 0;
+    }
+
+    private void load(Connection conn, String relationshipTable) throws SQLException {
+        long start = System.nanoTime();
+
+        // NULL ancestors become 0, which sorts first in every database
+        List<String> columns = new ArrayList<>();
+        for (String level : levels) {
+            columns.add("COALESCE(" + level + "_id, 0)");
+        }
+        String sql = "SELECT " + String.join(", ", columns) + " FROM " + relationshipTable
+                + " ORDER BY " + String.join(", ", columns);
+
+        Builder builder = new Builder(width);
+        boolean autoCommit = conn.getAutoCommit();
+        // PostgreSQL only uses a cursor inside a transaction; MySQL through useCursorFetch
+        conn.setAutoCommit(false);
+        try (PreparedStatement stmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+                ResultSet.CONCUR_READ_ONLY)) {
+            stmt.setFetchSize(IngestionConfig.getFetchSize());
+            try (ResultSet rs = stmt.executeQuery()) {
+                int[] path = new int[width];
+                while (rs.next()) {
+                    for (int l = 0; l < width; l++) {
+                        path[l] = rs.getInt(l + 1);
+                    }
+                    builder.add(path, 0);
+                }
+            }
+        } finally {
+            conn.rollback(); // Nothing was written; ends the read transaction that held the cursor
+            conn.setAutoCommit(autoCommit);
+        }
+        builder.build(this);
+
+        if (log.isInfoEnabled()) {
+            double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+            log.info("Loaded {} paths of {} into the hierarchy index in {} s", ids[width - 1].length,
+                    relationshipTable, String.format("%.2f", seconds));
+        }
+    }
+
+    /**
+     * Adds committed paths, skipping those the index already holds
+     * @param paths Paths, width ids each, root first
+     * @param count Number of paths
+     */
+    private synchronized void append(int[] paths, int count) {
+        for (int p = 0; p < count; p++) {
+            if (contains(paths, p * width)) {
+                continue;
+            }
+            if ((tailPaths + 1) * width > tail.length) {
+                tail = Arrays.copyOf(tail, Math.max(16 * width, tail.length * 2));
+            }
+            System.arraycopy(paths, p * width, tail, tailPaths * width, width);
+            for (int l = 0; l < width; l++) {
+                tailIds.get(l).computeIfAbsent(paths[p * width + l], id -> new IntList()).add(tailPaths);
+            }
+            tailPaths++;
+        }
+        if (tailPaths > Math.max(MIN_TAIL, ids[width - 1].length / 8)) {
+            merge();
+        }
+    }
+
+    private boolean contains(int[] paths, int offset) {
+        int leaf = width - 1;
+        int id = paths[offset + leaf];
+        for (int i = firstNode(leaf, id); i < lastNode(leaf, id); i++) {
+            int node = idNodes[leaf][i];
+            boolean same = true;
+            for (int l = leaf - 1; l >= 0 && same; l--) {
+                node = parents[l + 1][node];
+                same = ids[l][node] == paths[offset + l];
+            }
+            if (same) {
+                return true;
+            }
+        }
+        IntList tailed = tailIds.get(leaf).get(id);
+        for (int i = 0; tailed != null && i < tailed.size; i++) {
+            if (Arrays.equals(tail, tailed.values[i] * width, (tailed.values[i] + 1) * width,
+                    paths, offset, offset + width)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Rebuilds the arrays from their paths and the sorted tail, in one merge pass
+     */
+    private void merge() {
+        long start = System.nanoTime();
+        int[] order = sortedTail();
+        Builder builder = new Builder(width);
+        int leaves = ids[width - 1].length;
+        int[] path = new int[width];
+        int t = 0;
+        for (int leaf = 0; leaf < leaves; leaf++) {
+            int node = leaf;
+            for (int l = width - 1; l >= 0; l--) {
+                path[l] = ids[l][node];
+                node = l > 0 ? parents[l][node] : node;
+            }
+            while (t < order.length && compareTail(order[t], path) < 0) {
+                builder.add(tail, order[t++] * width);
+            }
+            builder.add(path, 0);
+        }
+        while (t < order.length) {
+            builder.add(tail, order[t++] * width);
+        }
+        int merged = tailPaths;
+        tail = new int[0];
+        tailPaths = 0;
+        for (Map<Integer, IntList> byId : tailIds) {
+            byId.clear();
+        }
+        builder.build(this);
+
+        log.debug("Merged {} paths into the hierarchy index in {} ms", merged, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    private int compareTail(int p, int[] path) {
+        for (int l = 0; l < width; l++) {
+            int c = Integer.compare(tail[p * width + l], path[l]);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    private int compareTail(int p, int q) {
+        for (int l = 0; l < width; l++) {
+            int c = Integer.compare(tail[p * width + l], tail[q * width + l]);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return Positions of the tail paths in path order, merge sorted without boxing
+     */
+    private int[] sortedTail() {
+        int[] order = new int[tailPaths];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        int[] buffer = new int[order.length];
+        for (int run = 1; run < order.length; run *= 2) {
+            for (int from = 0; from < order.length; from += 2 * run) {
+                int mid = Math.min(from + run, order.length);
+                int to = Math.min(from + 2 * run, order.length);
+                int i = from, j = mid, k = from;
+                while (i < mid && j < to) {
+                    buffer[k++] = compareTail(order[j], order[i]) < 0 ? order[j++] : order[i++];
+                }
+                while (i < mid) {
+                    buffer[k++] = order[i++];
+                }
+                while (j < to) {
+                    buffer[k++] = order[j++];
+                }
+            }
+            int[] swap = order;
+            order = buffer;
+            buffer = swap;
+        }
+        return order;
+    }
+
+    /**
+     * Builds the node arrays from paths added in path order
+     */
+    private static class Builder {
+        private final int width;
+        private final IntList[] ids;
+        private final IntList[] parents;
+        private final IntList[] firstChild;
+        private final int[] previous;
+        private boolean empty = true;
+
+        Builder(int width) {
+            this.width = width;
+            this.ids = new IntList[width];
+            this.parents = new IntList[width];
+            this.firstChild = new IntList[width];
+            this.previous = new int[width];
+            for (int l = 0; l < width; l++) {
+                ids[l] = new IntList();
+                parents[l] = new IntList();
+                firstChild[l] = new IntList();
+            }
+        }
+
+        /**
+         * Adds the nodes of a path below the prefix it shares with the previous path
+         */
+        void add(int[] path, int offset) {
+            int shared = 0;
+            while (!empty && shared < width && previous[shared] == path[offset + shared]) {
+                shared++;
+            }
+            if (shared == width) {
+                return; // Same path again
+            }
+            empty = false;
+            for (int l = shared; l < width; l++) {
+                parents[l].add(l > 0 ? ids[l - 1].size - 1 : -1);
+                if (l < width - 1) {
+                    firstChild[l].add(ids[l + 1].size);
+                }
+                ids[l].add(path[offset + l]);
+                previous[l] = path[offset + l];
+            }
+        }
+
+        void build(HierarchyIndex index) {
+            index.ids = new int[width][];
+            index.parents = new int[width][];
+            index.firstChild = new int[width][];
+            index.idStart = new int[width][];
+            index.idNodes = new int[width][];
+            for (int l = 0; l < width; l++) {
+                if (l < width - 1) {
+                    firstChild[l].add(ids[l + 1].size);
+                }
+                int[] levelIds = ids[l].toArray();
+                index.ids[l] = levelIds;
+                index.parents[l] = parents[l].toArray();
+                index.firstChild[l] = firstChild[l].toArray();
+
+                // Counting sort of the nodes by entity id
+                int maxId = 0;
+                for (int id : levelIds) {
+                    maxId = Math.max(maxId, id);
+                }
+                int[] start = new int[maxId + 2];
+                for (int id : levelIds) {
+                    start[id + 1]++;
+                }
+                for (int i = 1; i < start.length; i++) {
+                    start[i] += start[i - 1];
+                }
+                int[] next = Arrays.copyOf(start, start.length);
+                int[] nodes = new int[levelIds.length];
+                for (int node = 0; node < levelIds.length; node++) {
+                    nodes[next[levelIds[node]]++] = node;
+                }
+                index.idStart[l] = start;
+                index.idNodes[l] = nodes;
+            }
+        }
+    }
+
+    /**
+     * Growable int array
+     */
+    private static class IntList {
+        private int[] values = new int[16];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        void addAll(int[] source, int from, int to) {
+            if (size + to - from > values.length) {
+                values = Arrays.copyOf(values, Math.max(size * 2, size + to - from));
+            }
+            System.arraycopy(source, from, values, size, to - from);
+            size += to - from;
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+
+        /**
+         * @return The ids sorted, without duplicates and without the 0 of missing ancestors
+         */
+        int[] distinctIds() {
+            int[] sorted = toArray();
+            Arrays.sort(sorted);
+            int n = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (sorted[i] > 0 && (n == 0 || sorted[n - 1] != sorted[i])) {
+                    sorted[n++] = sorted[i];
+                }
+            }
+            return Arrays.copyOf(sorted, n);
+        }
+    }
+
+    /**
+     * New paths of one BatchWriter's open transaction, handed to the index when it commits. Not
+     * thread-safe; each BatchWriter has its own.
+     */
+    public static class Paths {
+        private final List<String> levels;
+        private final IntList ancestors = new IntList();
+        private final List<BatchWriter.RowId> leaves = new ArrayList<>();
+
+        private Paths(List<String> levels) {
+            this.levels = levels;
+        }
+
+        /**
+         * @return A buffer for the hierarchy of the catalog, or null if it has none
+         */
+        static Paths forCatalog(SchemaCatalog catalog) {
+            List<String> levels = getLevels(catalog);
+            return levels.isEmpty() ? null : new Paths(levels);
+        }
+
+        /**
+         * Adds a new leaf path
+         * @param ancestorIds Ids of the leaf's ancestors, keyed by entity name
+         * @param leafId Id of the leaf, possibly still pending in the current batch
+         */
+        public void add(Map<String, Integer> ancestorIds, BatchWriter.RowId leafId) {
+            for (int l = 0; l < levels.size() - 1; l++) {
+                Integer id = ancestorIds.get(levels.get(l));
+                ancestors.add(id != null ? id : 0);
+            }
+            leaves.add(leafId);
+        }
+
+        /**
+         * Hands the paths of a committed transaction to the loaded index and clears them
+         */
+        void publish() {
+            if (leaves.isEmpty()) {
+                return;
+            }
+            int width = levels.size();
+            synchronized (HierarchyIndex.class) {
+                String key = DatabaseConnector.getDatabaseName();
+                HierarchyIndex index = indexes.get(key);
+                Loading loading = loads.get(key);
+                boolean indexed = index != null && index.levels.equals(levels);
+                if (indexed || (loading != null && loading.levels.equals(levels))) {
+                    int[] paths = new int[leaves.size() * width];
+                    for (int p = 0; p < leaves.size(); p++) {
+                        System.arraycopy(ancestors.values, p * (width - 1), paths, p * width, width - 1);
+                        paths[p * width + width - 1] = leaves.get(p).get();
+                    }
+                    if (indexed) {
+                        index.append(paths, leaves.size());
+                    } else {
+                        loading.paths.addAll(paths, 0, paths.length);
+                    }
+                }
+            }
+            clear();
+        }
+
+        /**
+         * Drops the paths of a transaction that was rolled back
+         */
+        void clear() {
+            ancestors.size = 0;
+            leaves.clear();
+        }
+    }
+}
@@ -0,0 +1,333 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Aggregates over the leaves below each ancestor of the hierarchy. Every level above the leaf has a
+ * table &lt;entity&gt;_rollup with one row per entity row: the number of leaf paths below it and the sum,
+ * minimum and maximum of each numeric leaf attribute. The inserter adds every new leaf path to running
+ * aggregates kept in memory per BatchWriter, which merges them into the rollup tables right before
+ * each commit. Only new paths are counted, so ingesting the same file again leaves the rollups as
+ * they are, and a rolled back transaction takes its aggregates with it.
+ */
+public class HierarchyRollup {
+    private static final Logger log = LoggerFactory.getLogger(HierarchyRollup.class);
+
+    static final String COUNT_COLUMN = "leaf_count";
+
+    private final String leaf;
+    private final List<String> levels;
+    private final List<String> measures;
+
+    private HierarchyRollup(String leaf, List<String> levels, List<String> measures) {
+        this.leaf = leaf;
+        this.levels = List.copyOf(levels);
+        this.measures = List.copyOf(measures);
+    }
+
+    /**
+     * @return Name of the rollup table of an ancestor entity
+     */
+    public static String getTableName(String entity) {
+        return entity + "_rollup";
+    }
+
+    /**
+     * Describes the rollup tables a model defines: one per level above the leaf, aggregating the
+     * numeric leaf attributes, or those named in dm.rollup.attributes. Attributes declared as string
+     * are only numeric when dm.infer.types gives them a numeric column type.
+     * @param model The compiled meta-model
+     * @return The rollups, or null if the model has no hierarchy
+     */
+    static HierarchyRollup forModel(SchemaModel model) {
+        List<String> path = model.getHierarchyPath();
+        if (path.size() < 2) {
+            return null;
+        }
+        Set<String> selected = IngestionConfig.getRollupAttributes();
+        Set<String> ignored = new LinkedHashSet<>(selected);
+        List<String> measures = new ArrayList<>();
+        for (SchemaModel.Attribute attr : FactTable.getAttributes(model, model.getLeafEntity())) {
+            if (isNumeric(XSDToSQLConverter.columnType(attr))
+                    && (selected.isEmpty() || selected.contains(attr.getName()))) {
+                measures.add(attr.getName());
+                ignored.remove(attr.getName());
+            }
+        }
+        if (!ignored.isEmpty()) {
+            log.warn("dm.rollup.attributes {} are not numeric attributes of {} and are not rolled up{}", ignored,
+                    model.getLeafEntity(), IngestionConfig.isTypeInference() ? "" : "; string attributes need dm.infer.types=true");
+        }
+        return new HierarchyRollup(path.get(0), path.subList(1, path.size()), measures);
+    }
+
+    /**
+     * Describes the rollup tables of the current database
+     * @param catalog Catalog of the current database
+     * @return The rollups, or null if the database has no rollup tables
+     */
+    static HierarchyRollup forCatalog(SchemaCatalog catalog) {
+        List<String> path = catalog.getHierarchyPath();
+        List<String> levels = new ArrayList<>();
+        for (String entity : path.subList(Math.min(1, path.size()), path.size())) {
+            if (catalog.getColumns(getTableName(entity)).contains(COUNT_COLUMN)) {
+                levels.add(entity);
+            }
+        }
+        if (levels.isEmpty()) {
+            return null;
+        }
+
+        // Aggregate the leaf attributes every rollup table has columns for
+        List<String> measures = new ArrayList<>();
+        for (String attribute : catalog.getColumns(catalog.getLeafEntity())) {
+            boolean everywhere = !attribute.equals("id");
+            for (String level : levels) {
+                everywhere &= catalog.getColumns(getTableName(level)).containsAll(getMeasureColumns(attribute));
+            }
+            if (everywhere) {
+                measures.add(attribute);
+            }
+        }
+        return new HierarchyRollup(path.get(0), levels, measures);
+    }
+
+    /**
+     * @return Entities that have a rollup table, the leaf's parent first
+     */
+    public List<String> getLevels() {
+        return levels;
+    }
+
+    /**
+     * @return Leaf attributes that are summed and have their minimum and maximum kept
+     */
+    public List<String> getMeasures() {
+        return measures;
+    }
+
+    /**
+     * @return The sum, minimum and maximum columns of a leaf attribute
+     */
+    static List<String> getMeasureColumns(String attribute) {
+        return List.of(attribute + "_sum", attribute + "_min", attribute + "_max");
+    }
+
+    /**
+     * @return The key column, the count and the measure columns of a level's rollup table
+     */
+    public List<String> getColumns(String level) {
+        List<String> columns = new ArrayList<>();
+        columns.add(level + "_id");
+        columns.add(COUNT_COLUMN);
+        for (String measure : measures) {
+            columns.addAll(getMeasureColumns(measure));
+        }
+        return columns;
+    }
+
+    /**
+     * Creates the rollup table of one level, keyed by the id of the level's entity
+     * @param leafTypes SQL types of the leaf attributes, keyed by attribute name
+     */
+    String createTableSql(String level, Map<String, String> leafTypes) {
+        StringBuilder sql = new StringBuilder("CREATE TABLE " + getTableName(level) + " ("
+                + SqlDialect.current().getIdColumn() + ", " + level + "_id INT NOT NULL, "
+                + COUNT_COLUMN + " BIGINT NOT NULL");
+        for (String measure : measures) {
+            String type = leafTypes.get(measure);
+            sql.append(", ").append(measure).append("_sum ").append(sumType(type))
+                    .append(", ").append(measure).append("_min ").append(type)
+                    .append(", ").append(measure).append("_max ").append(type);
+        }
+        sql.append(", FOREIGN KEY (").append(level).append("_id) REFERENCES ").append(level)
+                .append("(id) ON DELETE CASCADE ON UPDATE CASCADE);");
+        return sql.toString();
+    }
+
+    /**
+     * INSERT that computes a level's rollup rows from the relationship table, for a rollup table that
+     * is still empty
+     */
+    String getBackfillSql(String level) {
+        StringBuilder sql = new StringBuilder("INSERT INTO " + getTableName(level) + " ("
+                + String.join(", ", getColumns(level)) + ") SELECT r." + level + "_id, COUNT(*)");
+        for (String measure : measures) {
+            sql.append(", COALESCE(SUM(l.").append(measure).append("), 0), MIN(l.").append(measure)
+                    .append("), MAX(l.").append(measure).append(")");
+        }
+        sql.append(" FROM ").append(leaf).append("_relationships r JOIN ").append(leaf)
+                .append(" l ON l.id = r.").append(leaf).append("_id GROUP BY r.").append(level).append("_id");
+        return sql.toString();
+    }
+
+    /**
+     * @param catalog Catalog of the current database, for the column types of the measures
+     * @return Running aggregates for one writer's transactions
+     */
+    Aggregates newAggregates(SchemaCatalog catalog) {
+        return new Aggregates(catalog.getColumnTypes(leaf, measures));
+    }
+
+    static boolean isNumeric(String sqlType) {
+        String type = sqlType.toUpperCase();
+        return type.startsWith("INT") || type.startsWith("BIGINT") || type.startsWith("SMALLINT")
+                || type.startsWith("DECIMAL") || type.startsWith("NUMERIC") || type.startsWith("DOUBLE")
+                || type.startsWith("FLOAT") || type.startsWith("REAL");
+    }
+
+    /**
+     * Sums get a wider type than the attribute so they do not overflow
+     */
+    private static String sumType(String sqlType) {
+        String type = sqlType.toUpperCase();
+        if (type.startsWith("INT") || type.startsWith("SMALLINT") || type.startsWith("BIGINT")) {
+            return "DECIMAL(38, 0)";
+        }
+        if (type.startsWith("DECIMAL") || type.startsWith("NUMERIC")) {
+            int comma = type.indexOf(',');
+            String scale = comma > 0 ? type.substring(comma + 1, type.indexOf(')')).trim() : "0";
+            return "DECIMAL(38, " + scale + ")";
+        }
+        return sqlType;
+    }
+
+    /**
+     * Count, sums, minimums and maximums below one ancestor row
+     */
+    private class Aggregate {
+        long count;
+        final BigDecimal[] sums = new BigDecimal[measures.size()];
+        final BigDecimal[] mins = new BigDecimal[measures.size()];
+        final BigDecimal[] maxs = new BigDecimal[measures.size()];
+
+        Aggregate() {
+            Arrays.fill(sums, BigDecimal.ZERO);
+        }
+
+        void add(BigDecimal[] values) {
+            count++;
+            for (int i = 0; i < values.length; i++) {
+                BigDecimal value = values[i];
+                if (value != null) {
+                    sums[i] = sums[i].add(value);
+                    mins[i] = mins[i] == null || value.compareTo(mins[i]) < 0 ? value : mins[i];
+                    maxs[i] = maxs[i] == null || value.compareTo(maxs[i]) > 0 ? value : maxs[i];
+                }
+            }
+        }
+    }
+
+    /**
+     * Aggregates of the paths added since the last commit, per level and ancestor id. Not thread-safe;
+     * each BatchWriter has its own.
+     */
+    public class Aggregates {
+        private final Map<String, SortedMap<Integer, Aggregate>> byLevel = new LinkedHashMap<>();
+        private final List<ColumnType> types;
+
+        private Aggregates(List<ColumnType> types) {
+            this.types = types;
+            for (String level : levels) {
+                byLevel.put(level, new TreeMap<>());
+            }
+        }
+
+        /**
+         * Adds a new leaf path
+         * @param ancestors Ids of the leaf's ancestors, keyed by entity name
+         * @param leafAttributes Attribute values of the leaf as read from the XML
+         */
+        public void addPath(Map<String, Integer> ancestors, Map<String, String> leafAttributes) {
+            BigDecimal[] values = new BigDecimal[measures.size()];
+            for (int i = 0; i < values.length; i++) {
+                String value = leafAttributes.get(measures.get(i));
+                if (value != null && !value.isBlank()) {
+                    try {
+                        // Aggregated as stored, e.g. rounded to the scale of a DECIMAL column
+                        values[i] = new BigDecimal(types.get(i).normalize(value).trim());
+                    } catch (SQLException | NumberFormatException e) {
+                        // The column type already rejected the row if the value had to be numeric
+                    }
+                }
+            }
+            byLevel.forEach((level, aggregates) -> {
+                Integer id = ancestors.get(level);
+                if (id != null) {
+                    aggregates.computeIfAbsent(id, k -> new Aggregate()).add(values);
+                }
+            });
+        }
+
+        public boolean isEmpty() {
+            return byLevel.values().stream().allMatch(Map::isEmpty);
+        }
+
+        /**
+         * Merges the aggregates into the rollup tables in the caller's transaction and clears them.
+         * Rows are written in level and id order, so concurrent writers lock them in the same order.
+         */
+        public void flush(Connection conn) throws SQLException {
+            if (isEmpty()) {
+                return;
+            }
+            SqlDialect dialect = SqlDialect.current();
+            List<String> sumColumns = new ArrayList<>(List.of(COUNT_COLUMN));
+            List<String> minColumns = new ArrayList<>();
+            List<String> maxColumns = new ArrayList<>();
+            for (String measure : measures) {
+                List<String> columns = getMeasureColumns(measure);
+                sumColumns.add(columns.get(0));
+                minColumns.add(columns.get(1));
+                maxColumns.add(columns.get(2));
+            }
+
+            for (Map.Entry<String, SortedMap<Integer, Aggregate>> entry : byLevel.entrySet()) {
+                String level = entry.getKey();
+                SortedMap<Integer, Aggregate> aggregates = entry.getValue();
+                if (aggregates.isEmpty()) {
+                    continue;
+                }
+                String table = getTableName(level);
+                List<String> columns = getColumns(level);
+                String insertSql = "INSERT INTO " + table + " (" + String.join(", ", columns) + ") VALUES ("
+                        + String.join(", ", Collections.nCopies(columns.size(), "?")) + ")";
+                String sql = dialect.accumulateSql(table, insertSql, List.of(level + "_id"),
+                        sumColumns, minColumns, maxColumns);
+
+                try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                    for (Map.Entry<Integer, Aggregate> row : aggregates.entrySet()) {
+                        Aggregate aggregate = row.getValue();
+                        int p = 1;
+                        stmt.setInt(p++, row.getKey());
+                        stmt.setLong(p++, aggregate.count);
+                        for (int i = 0; i < measures.size(); i++) {
+                            stmt.setBigDecimal(p++, aggregate.sums[i]);
+                            stmt.setBigDecimal(p++, aggregate.mins[i]);
+                            stmt.setBigDecimal(p++, aggregate.maxs[i]);
+                        }
+                        stmt.addBatch();
+                    }
+                    long start = System.nanoTime();
+                    stmt.executeBatch();
+                    IngestionMetrics.batchWritten("rollup " + table, aggregates.size(), System.nanoTime() - start);
+                }
+                aggregates.clear();
+            }
+        }
+
+        /**
+         * Drops the aggregates of a transaction that was rolled back
+         */
+        public void clear() {
+            byLevel.values().forEach(Map::clear);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package org.example;
+
+import java.sql.*;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Hands out entity ids in memory from blocks reserved in the id_sequences table, so rows can be
+ * queued with their id already known instead of waiting for RETURN_GENERATED_KEYS one row at a time.
+ * Blocks are reserved on their own committed transaction; ids of a rolled back block are simply skipped.
+ */
+public class IdAllocator {
+    private static final Map<String, IdAllocator> allocators = new ConcurrentHashMap<>();
+    private static final Set<String> sequenceTables = ConcurrentHashMap.newKeySet();
+
+    private final String table;
+    private final int blockSize;
+    private long next;
+    private long limit;
+
+    private IdAllocator(String table, int blockSize) {
+        this.table = table;
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Gets the allocator of an entity table
+     * @param table Entity table name
+     * @return The allocator, or null if client-side ids are disabled (dm.id.block=0)
+     */
+    public static IdAllocator forTable(String table) {
+        int blockSize = IngestionConfig.getIdBlockSize();
+        if (blockSize <= 0) {
+            return null;
+        }
+        return allocators.computeIfAbsent(DatabaseConnector.getDatabaseName() + "." + table,
+                k -> new IdAllocator(table, blockSize));
+    }
+
+    /**
+     * Gets the next free id, reserving a new block when the current one is used up
+     * @return The id
+     */
+    public synchronized int next() throws SQLException {
+        if (next >= limit) {
+            reserveBlock();
+        }
+        return (int) next++;
+    }
+
+    /**
+     * Reserves the next block of ids. The block starts after both the last reserved id and the
+     * highest id already in the table, so rows inserted through AUTO_INCREMENT are never reused.
+     */
+    private void reserveBlock() throws SQLException {
+        try (Connection conn = DatabaseConnector.getConnection()) {
+            ensureSequenceTable(conn);
+            conn.setAutoCommit(false);
+            try {
+                long sequenceNext = 0;
+                boolean exists = false;
+                try (PreparedStatement stmt = conn.prepareStatement(
+                        "SELECT next_id FROM id_sequences WHERE table_name = ? FOR UPDATE")) {
+                    stmt.setString(1, table);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        if (rs.next()) {
+                            sequenceNext = rs.getLong(1);
+                            exists = true;
+                        }
+                    }
+                }
+
+                long tableNext;
+                try (Statement stmt = conn.createStatement();
+                     ResultSet rs = stmt.executeQuery("SELECT COALESCE(MAX(id), 0) + 1 FROM " + table)) {
+                    rs.next();
+                    tableNext = rs.getLong(1);
+                }
+
+                long start = Math.max(sequenceNext, tableNext);
+                try (PreparedStatement stmt = conn.prepareStatement(exists
+                        ? "UPDATE id_sequences SET next_id = ? WHERE table_name = ?"
+                        : "INSERT INTO id_sequences (next_id, table_name) VALUES (?, ?)")) {
+                    stmt.setLong(1, start + blockSize);
+                    stmt.setString(2, table);
+                    stmt.executeUpdate();
+                }
+                // Keep the table's own id generator clear of the block for rows inserted without an id
+                try (Statement stmt = conn.createStatement()) {
+                    SqlDialect.current().syncIdentity(stmt, table, start + blockSize - 1);
+                }
+                conn.commit();
+
+                next = start;
+                limit = start + blockSize;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        }
+    }
+
+    private static void ensureSequenceTable(Connection conn) throws SQLException {
+        if (sequenceTables.add(DatabaseConnector.getDatabaseName())) {
+            try (Statement stmt = conn.createStatement()) {
+                stmt.executeUpdate("CREATE TABLE IF NOT EXISTS id_sequences (" +
+                        "table_name VARCHAR(255) PRIMARY KEY, " +
+                        "next_id BIGINT NOT NULL" +
+                        ")");
+            }
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Durable progress of a streaming ingestion, kept in the ingest_progress table. Each checkpoint is
+ * written in the same transaction as the rows it covers and records how many element events of the
+ * file have been fully processed, plus the tags and ids of the elements that are open at that point.
+ * A restarted run skips the committed prefix without touching the database and continues from there.
+ */
+public class IngestionCheckpoint {
+    private static final Logger log = LoggerFactory.getLogger(IngestionCheckpoint.class);
+
+    /**
+     * One open element at the checkpoint; id is -1 for an element that is not stored
+     */
+    public static class OpenElement {
+        public final String tag;
+        public final int id;
+
+        public OpenElement(String tag, int id) {
+            this.tag = tag;
+            this.id = id;
+        }
+    }
+
+    private final String source;
+    private final long fileSize;
+    private final long lastModified;
+    private final long resumeOrdinal;
+    private final List<OpenElement> resumePath;
+
+    private IngestionCheckpoint(String source, long fileSize, long lastModified, long resumeOrdinal,
+                                List<OpenElement> resumePath) {
+        this.source = source;
+        this.fileSize = fileSize;
+        this.lastModified = lastModified;
+        this.resumeOrdinal = resumeOrdinal;
+        this.resumePath = resumePath;
+    }
+
+    /**
+     * Reads the checkpoint of a data file. A checkpoint of a completed run, or of a file that has
+     * changed since, is ignored and the file is processed from the start.
+     * @param conn Connection to read the progress table with
+     * @param xmlFile The data file
+     * @return The checkpoint to resume from
+     */
+    public static IngestionCheckpoint open(Connection conn, File xmlFile) throws SQLException {
+        String source = xmlFile.getAbsolutePath();
+        long fileSize = xmlFile.length();
+        long lastModified = xmlFile.lastModified();
+
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("CREATE TABLE IF NOT EXISTS ingest_progress (" +
+                    "source VARCHAR(512) PRIMARY KEY, " +
+                    "file_size BIGINT NOT NULL, " +
+                    "last_modified BIGINT NOT NULL, " +
+                    "element_ordinal BIGINT NOT NULL, " +
+                    "open_elements TEXT, " +
+                    "completed BOOLEAN NOT NULL" +
+                    ")");
+        }
+        if (!conn.getAutoCommit()) {
+            conn.commit();
+        }
+
+        try (PreparedStatement stmt = conn.prepareStatement("SELECT file_size, last_modified, element_ordinal, " +
+                "open_elements, completed FROM ingest_progress WHERE source = ?")) {
+            stmt.setString(1, source);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next() && !rs.getBoolean("completed") && rs.getLong("element_ordinal") > 0) {
+                    if (rs.getLong("file_size") == fileSize && rs.getLong("last_modified") == lastModified) {
+                        return new IngestionCheckpoint(source, fileSize, lastModified,
+                                rs.getLong("element_ordinal"), parsePath(rs.getString("open_elements")));
+                    }
+                    log.info("Data file changed since the last interrupted run. Starting from the beginning.");
+                }
+            }
+        }
+        return new IngestionCheckpoint(source, fileSize, lastModified, 0, List.of());
+    }
+
+    /**
+     * @return Number of element events already committed, 0 for a fresh run
+     */
+    public long getResumeOrdinal() {
+        return resumeOrdinal;
+    }
+
+    /**
+     * @return The elements that were open at the checkpoint, outermost first
+     */
+    public List<OpenElement> getResumePath() {
+        return resumePath;
+    }
+
+    /**
+     * Records progress inside the caller's open transaction
+     * @param conn Connection whose transaction is about to commit
+     * @param ordinal Number of element events fully processed
+     * @param openElements Elements open at that point, outermost first
+     * @param completed true once the whole file has been processed
+     */
+    public void record(Connection conn, long ordinal, List<OpenElement> openElements, boolean completed)
+            throws SQLException {
+        String path = formatPath(openElements);
+        try (PreparedStatement update = conn.prepareStatement("UPDATE ingest_progress SET file_size = ?, " +
+                "last_modified = ?, element_ordinal = ?, open_elements = ?, completed = ? WHERE source = ?")) {
+            update.setLong(1, fileSize);
+            update.setLong(2, lastModified);
+            update.setLong(3, ordinal);
+            update.setString(4, path);
+            update.setBoolean(5, completed);
+            update.setString(6, source);
+            if (update.executeUpdate() > 0) {
+                return;
+            }
+        }
+        try (PreparedStatement insert = conn.prepareStatement("INSERT INTO ingest_progress (source, file_size, " +
+                "last_modified, element_ordinal, open_elements, completed) VALUES (?, ?, ?, ?, ?, ?)")) {
+            insert.setString(1, source);
+            insert.setLong(2, fileSize);
+            insert.setLong(3, lastModified);
+            insert.setLong(4, ordinal);
+            insert.setString(5, path);
+            insert.setBoolean(6, completed);
+            insert.executeUpdate();
+        }
+    }
+
+    private static String formatPath(List<OpenElement> openElements) {
+        StringBuilder sb = new StringBuilder();
+        for (OpenElement element : openElements) {
+            if (sb.length() > 0) {
+                sb.append('/');
+            }
+            sb.append(element.tag).append(':').append(element.id);
+        }
+        return sb.toString();
+    }
+
+    private static List<OpenElement> parsePath(String path) {
+        List<OpenElement> elements = new ArrayList<>();
+        if (path == null || path.isEmpty()) {
+            return elements;
+        }
+        for (String part : path.split("/")) {
+            int colon = part.lastIndexOf(':');
+            elements.add(new OpenElement(part.substring(0, colon), Integer.parseInt(part.substring(colon + 1))));
+        }
+        return elements;
+    }
+}
@@ -0,0 +1,270 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Paths;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Settings for the XML ingestion run, read from system properties so they can be
+ * changed without touching the interactive prompts, e.g. -Ddm.ingest.mode=streaming
+ */
+public class IngestionConfig {
+    private static final Logger log = LoggerFactory.getLogger(IngestionConfig.class);
+
+    public enum Mode {
+        DOM,
+        STREAMING,
+        PARALLEL,
+        BULK,
+        VALIDATE
+    }
+
+    /**
+     * Gets the ingestion mode (dm.ingest.mode), DOM by default
+     * @return The configured mode
+     */
+    public static Mode getMode() {
+        String mode = System.getProperty("dm.ingest.mode", "dom");
+        try {
+            return Mode.valueOf(mode.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warn("Unknown ingestion mode '{}', falling back to DOM.", mode);
+            return Mode.DOM;
+        }
+    }
+
+    /**
+     * Gets the number of queued rows that triggers a batch flush (dm.batch.size)
+     * @return The batch size, 1000 by default
+     */
+    public static int getBatchSize() {
+        return Integer.getInteger("dm.batch.size", 1000);
+    }
+
+    /**
+     * Gets the number of written rows per transaction (dm.commit.rows), 0 commits only once at the end.
+     * Applies to the streaming and parallel modes; the DOM mode validates while it inserts and always
+     * commits the whole document at once.
+     * @return The commit interval, 10000 by default
+     */
+    public static int getCommitRows() {
+        return Integer.getInteger("dm.commit.rows", 10000);
+    }
+
+    /**
+     * Gets the maximum number of rows kept per table in the entity dedup index (dm.dedup.capacity),
+     * 0 disables the index so every element is looked up in the database
+     * @return The capacity, 500000 by default
+     */
+    public static int getDedupCapacity() {
+        return Integer.getInteger("dm.dedup.capacity", 500000);
+    }
+
+    /**
+     * Gets the entity whose subtrees are ingested in parallel (dm.parallel.level)
+     * @return The entity name, or null to split at the children of the root element
+     */
+    public static String getParallelLevel() {
+        String level = System.getProperty("dm.parallel.level");
+        return level == null || level.isBlank() ? null : level.trim();
+    }
+
+    /**
+     * Gets the number of subtrees ingested at the same time (dm.parallel.workers)
+     * @return The worker count, by default the connection pool size minus the connections of the
+     * streaming thread and of the id block reservations
+     */
+    public static int getParallelWorkers() {
+        return Integer.getInteger("dm.parallel.workers", Math.max(1, getPoolSize() - 2));
+    }
+
+    /**
+     * Gets the number of entity ids reserved at a time for client-side id assignment (dm.id.block),
+     * 0 leaves ids to AUTO_INCREMENT and reads them back through generated keys
+     * @return The block size, 1000 by default
+     */
+    public static int getIdBlockSize() {
+        return Integer.getInteger("dm.id.block", 1000);
+    }
+
+    /**
+     * Gets the directory the bulk mode writes its staging files to (dm.bulk.dir)
+     * @return The directory, dm-bulk under the system temp directory by default
+     */
+    public static String getBulkStagingDir() {
+        return System.getProperty("dm.bulk.dir",
+                Paths.get(System.getProperty("java.io.tmpdir"), "dm-bulk").toString());
+    }
+
+    /**
+     * Tells whether the streaming mode records a checkpoint with every commit (dm.checkpoint)
+     * @return true unless disabled with -Ddm.checkpoint=false
+     */
+    public static boolean isCheckpointEnabled() {
+        return Boolean.parseBoolean(System.getProperty("dm.checkpoint", "true"));
+    }
+
+    /**
+     * Tells whether rows are written with upserts against the natural-key unique indexes (dm.upsert),
+     * which replaces the lookup before each insert on MySQL and PostgreSQL
+     * @return true if upsert mode is on, false by default
+     */
+    public static boolean isUpsert() {
+        return Boolean.getBoolean("dm.upsert");
+    }
+
+    /**
+     * Tells whether column types are inferred from the data file before the tables are created (dm.infer.types)
+     * @return true if inference is on, false by default
+     */
+    public static boolean isTypeInference() {
+        return Boolean.getBoolean("dm.infer.types");
+    }
+
+    /**
+     * Gets the number of elements type inference looks at (dm.infer.sample)
+     * @return The sample size, 0 (the whole file) by default
+     */
+    public static int getInferenceSample() {
+        return Integer.getInteger("dm.infer.sample", 0);
+    }
+
+    /**
+     * Gets the SQL dialect to use (dm.db.dialect): mysql or postgresql
+     * @return The dialect name, or null to pick it from the server URL
+     */
+    public static String getDialectName() {
+        return System.getProperty("dm.db.dialect");
+    }
+
+    /**
+     * Gets the JDBC URL of the database server, without a database name (dm.db.url)
+     * @return The URL, or null for the dialect's localhost default
+     */
+    public static String getServerUrl() {
+        return System.getProperty("dm.db.url");
+    }
+
+    /**
+     * @return The database user (dm.db.user), xsduser by default
+     */
+    public static String getDatabaseUser() {
+        return System.getProperty("dm.db.user", "xsduser");
+    }
+
+    /**
+     * @return The database password (dm.db.password), 1234 by default
+     */
+    public static String getDatabasePassword() {
+        return System.getProperty("dm.db.password", "1234");
+    }
+
+    /**
+     * Gets the directory compiled schema models are cached in (dm.schema.cache)
+     * @return The directory, dm-schema under the system temp directory by default; empty disables the cache
+     */
+    public static String getSchemaCacheDir() {
+        return System.getProperty("dm.schema.cache",
+                Paths.get(System.getProperty("java.io.tmpdir"), "dm-schema").toString());
+    }
+
+    /**
+     * Gets the maximum number of connections per database pool (dm.pool.size)
+     * @return The pool size; by default dm.parallel.workers + 2 when that is set, the processor count + 2
+     * (at least 4) in parallel mode, and 4 for the single-threaded modes
+     */
+    public static int getPoolSize() {
+        Integer size = Integer.getInteger("dm.pool.size");
+        if (size != null) {
+            return Math.max(2, size);
+        }
+        Integer workers = Integer.getInteger("dm.parallel.workers");
+        if (workers != null) {
+            return Math.max(1, workers) + 2;
+        }
+        if (getMode() == Mode.PARALLEL) {
+            return Math.max(4, Runtime.getRuntime().availableProcessors() + 2);
+        }
+        return 4;
+    }
+
+    /**
+     * Gets how long the pool of a database other than the current one may stay unused before it is
+     * closed (dm.pool.idle.ms)
+     * @return The idle time in milliseconds, 60000 by default
+     */
+    public static long getPoolIdleMillis() {
+        return Long.getLong("dm.pool.idle.ms", 60000L);
+    }
+
+    /**
+     * Gets the number of seconds between progress summaries of a run (dm.metrics.interval), 0 disables them
+     * @return The interval, 10 seconds by default
+     */
+    public static int getMetricsInterval() {
+        return Integer.getInteger("dm.metrics.interval", 10);
+    }
+
+    /**
+     * Gets the number of per-row log lines written per second and event type at DEBUG level (dm.log.sample)
+     * @return The rate, 5 by default
+     */
+    public static int getLogSampleRate() {
+        return Integer.getInteger("dm.log.sample", 5);
+    }
+
+    /**
+     * Gets the number of rows a query cursor fetches per round trip when reading data back (dm.fetch.size)
+     * @return The fetch size, 1000 by default
+     */
+    public static int getFetchSize() {
+        return Integer.getInteger("dm.fetch.size", 1000);
+    }
+
+    /**
+     * Gets the leaf attributes the rollup tables aggregate (dm.rollup.attributes, comma-separated)
+     * @return The attribute names, or an empty set to aggregate every numeric leaf attribute
+     */
+    public static Set<String> getRollupAttributes() {
+        String value = System.getProperty("dm.rollup.attributes", "");
+        Set<String> attributes = new LinkedHashSet<>();
+        for (String name : value.split(",")) {
+            if (!name.isBlank()) {
+                attributes.add(name.trim());
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * Gets the directory the ingested tables are exported to after the run (dm.export.dir)
+     * @return The directory, or null if nothing is exported
+     */
+    public static String getExportDir() {
+        String dir = System.getProperty("dm.export.dir", "");
+        return dir.isBlank() ? null : dir;
+    }
+
+    /**
+     * Gets the formats tables are exported in (dm.export.formats: csv, columnar and/or xml, comma-separated)
+     * @return The formats, csv and columnar by default
+     */
+    public static Set<DataExporter.Format> getExportFormats() {
+        Set<DataExporter.Format> formats = EnumSet.noneOf(DataExporter.Format.class);
+        for (String name : System.getProperty("dm.export.formats", "csv,columnar").split(",")) {
+            switch (name.trim().toLowerCase()) {
+                case "csv" -> formats.add(DataExporter.Format.CSV_GZIP);
+                case "columnar" -> formats.add(DataExporter.Format.COLUMNAR);
+                case "xml" -> formats.add(DataExporter.Format.XML);
+                case "" -> {
+                }
+                default -> throw new IllegalArgumentException("Unknown dm.export.formats entry: " + name);
+            }
+        }
+        return formats;
+    }
+}
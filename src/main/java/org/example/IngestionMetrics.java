@@ -0,0 +1,409 @@
+package org.example;
+
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.MetricsTrackerFactory;
+import com.zaxxer.hikari.metrics.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms of an ingestion run: elements parsed, rows inserted and deduplicated,
+ * round trips, batch sizes, per-operation latencies and the time spent waiting for pooled connections.
+ * They are exposed over JMX as org.example:type=IngestionMetrics and, every dm.metrics.interval
+ * seconds, printed as a throughput and ETA summary. Recording is lock-free, so parallel workers
+ * update the same counters.
+ */
+public class IngestionMetrics implements IngestionMetricsMXBean {
+    private static final Logger log = LoggerFactory.getLogger(IngestionMetrics.class);
+
+    private static final IngestionMetrics INSTANCE = new IngestionMetrics();
+    private static final String OBJECT_NAME = "org.example:type=IngestionMetrics";
+
+    private final LongAdder elementsParsed = new LongAdder();
+    private final LongAdder rowsInserted = new LongAdder();
+    private final LongAdder rowsDeduplicated = new LongAdder();
+    private final LongAdder roundTrips = new LongAdder();
+    private final LongAdder poolWaitNanos = new LongAdder();
+    private final LongAdder poolTimeouts = new LongAdder();
+    private final Histogram batchSizes = new Histogram();
+    private final Map<String, Histogram> latencies = new ConcurrentHashMap<>();
+
+    // Progress of the current run, for the throughput and ETA summary
+    private final LongAdder bytesRead = new LongAdder();
+    private volatile long runStartNanos = System.nanoTime();
+    private volatile long totalBytes;
+    private volatile long expectedElements;
+    private volatile String runName;
+    private ScheduledExecutorService reporter;
+
+    /**
+     * Counts of values per power-of-two bucket; bucket i holds values below 2^i
+     */
+    static final class Histogram {
+        private static final int BUCKETS = 48;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long value) {
+            long v = Math.max(0, value);
+            buckets.incrementAndGet(Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(v)));
+            count.increment();
+            sum.add(v);
+            max.accumulateAndGet(v, Math::max);
+        }
+
+        long getCount() {
+            return count.sum();
+        }
+
+        double getMean() {
+            long n = count.sum();
+            return n == 0 ? 0 : (double) sum.sum() / n;
+        }
+
+        long getMax() {
+            return max.get();
+        }
+
+        /**
+         * @return Upper bound of the bucket holding the given quantile, capped at the maximum
+         */
+        long getPercentile(double quantile) {
+            long n = count.sum();
+            if (n == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(quantile * n);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    return Math.min(max.get(), i == 0 ? 0 : (1L << i) - 1);
+                }
+            }
+            return max.get();
+        }
+
+        Map<String, Long> getBuckets() {
+            Map<String, Long> result = new TreeMap<>((a, b) -> Long.compare(Long.parseLong(a.substring(1)),
+                    Long.parseLong(b.substring(1))));
+            for (int i = 0; i < BUCKETS; i++) {
+                long c = buckets.get(i);
+                if (c > 0) {
+                    result.put("<" + (1L << i), c);
+                }
+            }
+            return result;
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.reset();
+            sum.reset();
+            max.set(0);
+        }
+    }
+
+    /**
+     * Feeds Hikari's connection acquisition times into the pool wait counters
+     */
+    static class PoolTracker implements MetricsTrackerFactory {
+        @Override
+        public IMetricsTracker create(String poolName, PoolStats poolStats) {
+            return new IMetricsTracker() {
+                @Override
+                public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                    INSTANCE.poolWaitNanos.add(elapsedAcquiredNanos);
+                    INSTANCE.latency("pool wait", elapsedAcquiredNanos);
+                }
+
+                @Override
+                public void recordConnectionTimeout() {
+                    INSTANCE.poolTimeouts.increment();
+                }
+            };
+        }
+    }
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // Registered by another class loader of the same JVM
+        } catch (JMException e) {
+            log.warn("Could not register ingestion metrics with JMX: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * @return The metrics of this JVM
+     */
+    public static IngestionMetrics get() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return Tracker factory to install in Hikari pool configurations
+     */
+    public static MetricsTrackerFactory poolTracker() {
+        return new PoolTracker();
+    }
+
+    /**
+     * Starts the throughput and ETA reports for a run
+     * @param name What is being ingested, e.g. the data file
+     * @param totalBytes Size of the input, 0 if unknown; progress is measured by the bytes of streams from track
+     * @param totalElements Number of elements to process, 0 if unknown; used when progress cannot be measured in bytes
+     */
+    public static synchronized void startRun(String name, long totalBytes, long totalElements) {
+        IngestionMetrics m = INSTANCE;
+        m.reset();
+        m.runName = name;
+        m.totalBytes = totalBytes;
+        m.expectedElements = totalElements;
+        m.runStartNanos = System.nanoTime();
+
+        int interval = IngestionConfig.getMetricsInterval();
+        if (interval > 0 && m.reporter == null) {
+            m.reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "dm-metrics");
+                thread.setDaemon(true);
+                return thread;
+            });
+            m.reporter.scheduleAtFixedRate(() -> log.info(m.progressLine()), interval, interval,
+                    TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Stops the periodic reports and prints the summary of the run
+     */
+    public static synchronized void finishRun() {
+        IngestionMetrics m = INSTANCE;
+        if (m.reporter != null) {
+            m.reporter.shutdownNow();
+            m.reporter = null;
+        }
+        log.info(m.progressLine());
+        if (log.isInfoEnabled()) {
+            log.info("  {} round trips, {} batches of {} rows on average, {} ms waiting for connections",
+                    m.getRoundTrips(), m.getBatches(), String.format("%.1f", m.getAverageBatchSize()),
+                    String.format("%.1f", m.getPoolWaitMillis()));
+        }
+        m.getLatencies().forEach((operation, summary) -> log.info("  {}: {}", operation, summary));
+        LogSampler.reportSuppressed(log);
+    }
+
+    /**
+     * Wraps an input stream so that the bytes read from it count as progress of the run
+     */
+    public static InputStream track(InputStream in) {
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if (b >= 0) {
+                    INSTANCE.bytesRead.increment();
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buffer, int offset, int length) throws IOException {
+                int n = super.read(buffer, offset, length);
+                if (n > 0) {
+                    INSTANCE.bytesRead.add(n);
+                }
+                return n;
+            }
+        };
+    }
+
+    public static void elementParsed() {
+        INSTANCE.elementsParsed.increment();
+    }
+
+    /**
+     * Records a deduplicated element, i.e. one that resolved to an existing or already queued row
+     */
+    public static void rowDeduplicated() {
+        INSTANCE.rowsDeduplicated.increment();
+    }
+
+    /**
+     * Records a statement or batch that wrote rows
+     * @param operation What was done, e.g. "insert product"
+     * @param rows Rows written
+     * @param nanos Time the round trip took
+     */
+    public static void rowsWritten(String operation, int rows, long nanos) {
+        INSTANCE.rowsInserted.add(rows);
+        roundTrip(operation, nanos);
+    }
+
+    /**
+     * Records a JDBC batch that wrote rows
+     */
+    public static void batchWritten(String operation, int rows, long nanos) {
+        INSTANCE.batchSizes.record(rows);
+        rowsWritten(operation, rows, nanos);
+    }
+
+    /**
+     * Records a statement that wrote nothing, e.g. a lookup or DDL
+     */
+    public static void roundTrip(String operation, long nanos) {
+        INSTANCE.roundTrips.increment();
+        INSTANCE.latency(operation, nanos);
+    }
+
+    /**
+     * Records the duration of a step that does not talk to the database, e.g. parsing a JSON file
+     */
+    public static void timed(String operation, long nanos) {
+        INSTANCE.latency(operation, nanos);
+    }
+
+    private void latency(String operation, long nanos) {
+        latencies.computeIfAbsent(operation, k -> new Histogram()).record(nanos / 1000);
+    }
+
+    private String progressLine() {
+        double seconds = (System.nanoTime() - runStartNanos) / 1_000_000_000.0;
+        StringBuilder line = new StringBuilder();
+        line.append(String.format("%s: %d elements (%.0f/s), %d rows inserted (%.0f/s), %d deduplicated after %.1f s",
+                runName == null ? "Ingestion" : runName, getElementsParsed(), getElementsPerSecond(),
+                getRowsInserted(), getRowsPerSecond(), getRowsDeduplicated(), seconds));
+        double done = getFractionDone();
+        if (done > 0 && done < 1) {
+            line.append(String.format(", %.0f%% done, ETA %d s", done * 100, getEtaSeconds()));
+        }
+        return line.toString();
+    }
+
+    /**
+     * @return Fraction of the input consumed, or 0 if unknown
+     */
+    private double getFractionDone() {
+        long bytes = bytesRead.sum();
+        if (totalBytes > 0 && bytes > 0) {
+            return Math.min(1, (double) bytes / totalBytes);
+        }
+        if (expectedElements > 0) {
+            return Math.min(1, (double) elementsParsed.sum() / expectedElements);
+        }
+        return 0;
+    }
+
+    private double elapsedSeconds() {
+        return Math.max(1e-9, (System.nanoTime() - runStartNanos) / 1_000_000_000.0);
+    }
+
+    @Override
+    public long getElementsParsed() {
+        return elementsParsed.sum();
+    }
+
+    @Override
+    public long getRowsInserted() {
+        return rowsInserted.sum();
+    }
+
+    @Override
+    public long getRowsDeduplicated() {
+        return rowsDeduplicated.sum();
+    }
+
+    @Override
+    public long getRoundTrips() {
+        return roundTrips.sum();
+    }
+
+    @Override
+    public long getBatches() {
+        return batchSizes.getCount();
+    }
+
+    @Override
+    public double getAverageBatchSize() {
+        return batchSizes.getMean();
+    }
+
+    @Override
+    public double getPoolWaitMillis() {
+        return poolWaitNanos.sum() / 1_000_000.0;
+    }
+
+    @Override
+    public long getPoolTimeouts() {
+        return poolTimeouts.sum();
+    }
+
+    @Override
+    public double getElementsPerSecond() {
+        return getElementsParsed() / elapsedSeconds();
+    }
+
+    @Override
+    public double getRowsPerSecond() {
+        return getRowsInserted() / elapsedSeconds();
+    }
+
+    @Override
+    public long getEtaSeconds() {
+        double done = getFractionDone();
+        if (done <= 0) {
+            return -1;
+        }
+        return Math.round(elapsedSeconds() * (1 - done) / done);
+    }
+
+    @Override
+    public Map<String, String> getLatencies() {
+        Map<String, String> result = new TreeMap<>();
+        latencies.forEach((operation, histogram) -> result.put(operation, String.format(
+                "count=%d mean=%.0fus p50=%dus p99=%dus max=%dus", histogram.getCount(), histogram.getMean(),
+                histogram.getPercentile(0.5), histogram.getPercentile(0.99), histogram.getMax())));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getBatchSizeHistogram() {
+        return batchSizes.getBuckets();
+    }
+
+    @Override
+    public void reset() {
+        elementsParsed.reset();
+        rowsInserted.reset();
+        rowsDeduplicated.reset();
+        roundTrips.reset();
+        poolWaitNanos.reset();
+        poolTimeouts.reset();
+        bytesRead.reset();
+        batchSizes.reset();
+        latencies.clear();
+    }
+}
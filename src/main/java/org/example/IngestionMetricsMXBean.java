@@ -0,0 +1,79 @@
+package org.example;
+
+import java.util.Map;
+
+/**
+ * JMX view of IngestionMetrics, registered as org.example:type=IngestionMetrics
+ */
+public interface IngestionMetricsMXBean {
+
+    /**
+     * @return XML elements read from the data file, or JSON nodes converted
+     */
+    long getElementsParsed();
+
+    /**
+     * @return Rows written to entity and relationship tables
+     */
+    long getRowsInserted();
+
+    /**
+     * @return Elements that resolved to a row that already existed or was already queued
+     */
+    long getRowsDeduplicated();
+
+    /**
+     * @return Statements and batches sent to the database
+     */
+    long getRoundTrips();
+
+    /**
+     * @return JDBC batches executed
+     */
+    long getBatches();
+
+    /**
+     * @return Mean number of rows per executed batch
+     */
+    double getAverageBatchSize();
+
+    /**
+     * @return Total time spent waiting for a pooled connection, in milliseconds
+     */
+    double getPoolWaitMillis();
+
+    /**
+     * @return Times a connection request timed out
+     */
+    long getPoolTimeouts();
+
+    /**
+     * @return Elements per second since the run started
+     */
+    double getElementsPerSecond();
+
+    /**
+     * @return Rows written per second since the run started
+     */
+    double getRowsPerSecond();
+
+    /**
+     * @return Estimated seconds until the input is consumed, or -1 if unknown
+     */
+    long getEtaSeconds();
+
+    /**
+     * @return Latency summary per operation, e.g. "insert product", as count, p50, p99 and max in microseconds
+     */
+    Map<String, String> getLatencies();
+
+    /**
+     * @return Distribution of rows per batch as count per power-of-two bucket
+     */
+    Map<String, Long> getBatchSizeHistogram();
+
+    /**
+     * Sets all counters back to zero
+     */
+    void reset();
+}
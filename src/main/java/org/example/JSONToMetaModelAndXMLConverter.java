@@ -5,6 +5,7 @@ import org.json.JSONArray;
 
 import java.io.File;
 import java.io.FileWriter;
+import java.math.BigInteger;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.HashSet;
@@ -20,8 +21,11 @@ public class JSONToMetaModelAndXMLConverter {
             String jsonFilePath = scanner.nextLine();
 
             // Read the JSON file
+            IngestionMetrics.startRun(jsonFilePath, 0, 0);
+            long start = System.nanoTime();
             String jsonContent = new String(Files.readAllBytes(Paths.get(jsonFilePath)));
             JSONObject json = new JSONObject(jsonContent);
+            IngestionMetrics.timed("json parse", System.nanoTime() - start);
 
             String fileName = new File(jsonFilePath).getName().replace(".json", "");
 
@@ -36,12 +40,16 @@ public class JSONToMetaModelAndXMLConverter {
                     .append("    xsi:schemaLocation=\"http://iiitb.ac.in/mt2024111 meta-meta-model.xsd\">\n");
 
             // Recursively build the meta-model XML
+            start = System.nanoTime();
             buildMetaModelEntity(json, metaSb, seen);
+            IngestionMetrics.timed("json meta-model", System.nanoTime() - start);
 
             metaSb.append("</meta-meta-model>");
 
             // Generate data XML
+            start = System.nanoTime();
             String dataXML = generateDataXML(json);
+            IngestionMetrics.timed("json data", System.nanoTime() - start);
 
             // Save the generated files
             try (FileWriter metaWriter = new FileWriter("src/main/resources/meta-model-" + fileName + ".xml")) {
@@ -55,6 +63,8 @@ public class JSONToMetaModelAndXMLConverter {
             System.out.println("Conversion successful: meta-model-" + fileName + ".xml and " + fileName + ".xml created.");
         } catch (Exception e) {
             e.printStackTrace();
+        } finally {
+            IngestionMetrics.finishRun();
         }
     }
 
@@ -92,7 +102,9 @@ public class JSONToMetaModelAndXMLConverter {
                             } else {
                                 sb.append("        <attribute Name=\"")
                                         .append(subKey)
-                                        .append("\" type=\"string\"/>\n");
+                                        .append("\" type=\"")
+                                        .append(metaModelType(subVal))
+                                        .append("\"/>\n");
                             }
                         }
                     }
@@ -112,6 +124,23 @@ public class JSONToMetaModelAndXMLConverter {
         }
     }
 
+    // Method to map a JSON value to the meta-model attribute type, so the DDL gets a matching column type
+    private static String metaModelType(Object value) {
+        if (value instanceof Boolean) {
+            return "boolean";
+        }
+        if (value instanceof Integer) {
+            return "integer";
+        }
+        if (value instanceof Long || value instanceof BigInteger) {
+            return "long";
+        }
+        if (value instanceof Number) {
+            return "decimal";
+        }
+        return "string";
+    }
+
     // Method to generate the data XML based on the JSON structure
     private static String generateDataXML(JSONObject json) {
         StringBuilder sb = new StringBuilder();
@@ -119,6 +148,7 @@ public class JSONToMetaModelAndXMLConverter {
 
         // Iterate over the root elements of the JSON
         for (String root : json.keySet()) {
+            IngestionMetrics.elementParsed();
             sb.append("<").append(root);
             Object rootObj = json.get(root);
             if (rootObj instanceof JSONObject) {
@@ -147,6 +177,7 @@ public class JSONToMetaModelAndXMLConverter {
                 JSONArray arr = (JSONArray) val;
                 for (int i = 0; i < arr.length(); i++) {
                     JSONObject child = arr.getJSONObject(i);
+                    IngestionMetrics.elementParsed();
                     sb.append("  <").append(key);
                     for (String attr : child.keySet()) {
                         Object attrVal = child.get(attr);
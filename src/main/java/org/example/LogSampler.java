@@ -0,0 +1,66 @@
+package org.example;
+
+import org.slf4j.Logger;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rate limit for per-row log lines such as "Found existing product". At DEBUG level at most
+ * dm.log.sample lines per second are written for each event type and the rest are counted; at TRACE
+ * level every line is written. Below DEBUG nothing is written and the check costs one level test.
+ */
+public class LogSampler {
+    private static final Map<String, Window> windows = new ConcurrentHashMap<>();
+
+    /**
+     * Lines written and suppressed in the current second for one event type
+     */
+    private static class Window {
+        final AtomicLong second = new AtomicLong();
+        final AtomicLong written = new AtomicLong();
+        final LongAdder suppressed = new LongAdder();
+    }
+
+    /**
+     * Tells whether a per-row event should be logged now
+     * @param log Logger the line would go to, at DEBUG level
+     * @param eventType Kind of event, e.g. "found existing"; each kind has its own rate
+     * @return true if the caller should write the line
+     */
+    public static boolean sample(Logger log, String eventType) {
+        if (!log.isDebugEnabled()) {
+            return false;
+        }
+        if (log.isTraceEnabled()) {
+            return true;
+        }
+
+        Window window = windows.computeIfAbsent(eventType, k -> new Window());
+        long now = System.currentTimeMillis() / 1000;
+        long current = window.second.get();
+        if (now != current && window.second.compareAndSet(current, now)) {
+            window.written.set(0);
+        }
+        if (window.written.incrementAndGet() <= IngestionConfig.getLogSampleRate()) {
+            return true;
+        }
+        window.suppressed.increment();
+        return false;
+    }
+
+    /**
+     * Logs how many lines of each event type were suppressed since the last call, and resets the counts
+     */
+    public static void reportSuppressed(Logger log) {
+        windows.forEach((eventType, window) -> {
+            long suppressed = window.suppressed.sumThenReset();
+            if (suppressed > 0) {
+                log.debug("Suppressed {} '{}' lines (dm.log.sample={} per second)", suppressed, eventType,
+                        IngestionConfig.getLogSampleRate());
+            }
+        });
+    }
+}
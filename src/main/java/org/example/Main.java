@@ -1,7 +1,9 @@
 package org.example;
 
 import java.io.File;
-import java.util.List;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Scanner;
 
 public class Main {
@@ -44,13 +46,24 @@ public class Main {
             System.out.print("Enter the path to the data XML file: ");
             String dataXMLPath = scanner.nextLine();
 
-            if (!XMLValidator.validateXMLSchema(metaMetaModelPath, metaModelPath)) {
-                System.out.println("Validation failed: meta-model XML is not valid against meta-meta-model XSD.");
-                return;
+            // Narrow string attributes to the types their values actually have
+            Map<String, Map<String, String>> inferredTypes = IngestionConfig.isTypeInference()
+                    ? TypeInferrer.inferColumnTypes(dataXMLPath, IngestionConfig.getInferenceSample())
+                    : Collections.emptyMap();
+
+            // A meta-model compiled in an earlier run against the same XSD was validated then, so it is
+            // neither validated nor parsed again
+            SchemaModel model = SchemaModel.loadCached(metaMetaModelPath, metaModelPath, inferredTypes);
+            if (model == null) {
+                if (!XMLValidator.validateXMLSchema(metaMetaModelPath, metaModelPath)) {
+                    System.out.println("Validation failed: meta-model XML is not valid against meta-meta-model XSD.");
+                    return;
+                }
+
+                System.out.println("Validation successful.");
+                model = SchemaModel.compile(metaMetaModelPath, metaModelPath, inferredTypes);
             }
 
-            System.out.println("Validation successful.");
-
             // Extract database name from meta model file
             String dbName = extractDatabaseName(metaModelPath);
 
@@ -63,22 +76,39 @@ public class Main {
             // Set the database name for all subsequent operations
             DatabaseConnector.setDatabaseName(dbName);
 
-            List<String> sqlStatements = XSDToSQLConverter.parseXSD(metaModelPath);
-            if (sqlStatements.isEmpty()) {
+            if (model.getEntities().isEmpty()) {
                 System.out.println("No SQL statements were generated.");
                 return;
             }
-            System.out.println("SQL statements generated:");
-            System.out.println(sqlStatements);
 
-            // Step 1: Execute SQL statements to create tables
-            DatabaseConnector.executeSQL(sqlStatements);
+            // Step 1: Create or update tables and hierarchy metadata from the compiled model
+            if (!DatabaseConnector.applySchema(model)) {
+                System.out.println("Failed to create the schema. Exiting.");
+                return;
+            }
 
             // Step 2: Insert XML data into the database
-            XMLDataInserter.insertStoreData(dataXMLPath);
+            switch (IngestionConfig.getMode()) {
+                case STREAMING -> XMLDataInserter.insertStoreDataStreaming(dataXMLPath);
+                case PARALLEL -> XMLDataInserter.insertStoreDataParallel(dataXMLPath);
+                case BULK -> XMLDataInserter.insertStoreDataBulk(dataXMLPath);
+                case VALIDATE -> {
+                    // Dry run: report every hierarchy violation and stop before anything is inserted
+                    XMLDataInserter.validateStoreData(dataXMLPath);
+                    return;
+                }
+                default -> XMLDataInserter.insertStoreData(dataXMLPath);
+            }
 
             // Step 3: Retrieve and display star schema
             DataRetriever.displayInsertedTables();
+            DataRetriever.displayPaths(10);
+
+            // Step 4: Export the tables for analytics jobs, if requested
+            String exportDir = IngestionConfig.getExportDir();
+            if (exportDir != null) {
+                DataExporter.exportAll(Paths.get(exportDir), IngestionConfig.getExportFormats());
+            }
 
         } catch (Exception e) {
             e.printStackTrace();
@@ -0,0 +1,153 @@
+package org.example;
+
+import com.zaxxer.hikari.HikariConfig;
+
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MySQL: AUTO_INCREMENT ids, multi-row INSERTs through rewriteBatchedStatements,
+ * ON DUPLICATE KEY upserts and LOAD DATA LOCAL INFILE.
+ */
+public class MySqlDialect extends SqlDialect {
+    private static final int ER_TABLE_EXISTS = 1050;
+    private static final int ER_DUP_KEYNAME = 1061;
+
+    // InnoDB limit on the length of an index key with the DYNAMIC row format
+    private static final int MAX_INDEX_KEY_BYTES = 3072;
+
+    @Override
+    public String getName() {
+        return "MySQL";
+    }
+
+    @Override
+    public String getDefaultServerUrl() {
+        return "jdbc:mysql://localhost:3306/";
+    }
+
+    @Override
+    public void configurePool(HikariConfig config) {
+        config.addDataSourceProperty("cachePrepStmts", "true");
+        config.addDataSourceProperty("prepStmtCacheSize", "250");
+        config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        // Let the driver rewrite executeBatch() into multi-row INSERTs
+        config.addDataSourceProperty("rewriteBatchedStatements", "true");
+        // Statements with a fetch size read through a server-side cursor instead of buffering the whole result
+        config.addDataSourceProperty("useCursorFetch", "true");
+        // LOAD DATA LOCAL INFILE for the bulk mode, limited to its staging directory
+        config.addDataSourceProperty("allowLoadLocalInfileInPath", IngestionConfig.getBulkStagingDir());
+    }
+
+    @Override
+    public boolean databaseExists(Connection adminConn, String dbName) throws SQLException {
+        try (ResultSet resultSet = adminConn.getMetaData().getCatalogs()) {
+            while (resultSet.next()) {
+                if (resultSet.getString(1).equalsIgnoreCase(dbName)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public String getIdColumn() {
+        return "id INT AUTO_INCREMENT PRIMARY KEY";
+    }
+
+    @Override
+    public boolean isAlreadyExists(SQLException e) {
+        return e.getErrorCode() == ER_TABLE_EXISTS || e.getErrorCode() == ER_DUP_KEYNAME;
+    }
+
+    @Override
+    public String upsertEntitySql(String insertSql, List<String> keyColumns) {
+        // LAST_INSERT_ID(id) makes the existing row's id the generated key of the statement
+        return insertSql + " ON DUPLICATE KEY UPDATE id = LAST_INSERT_ID(id)";
+    }
+
+    @Override
+    public boolean upsertReturnsRow() {
+        return false;
+    }
+
+    @Override
+    public String insertIgnoreSql(String insertSql) {
+        return insertSql + " ON DUPLICATE KEY UPDATE id = id";
+    }
+
+    @Override
+    public String accumulateSql(String table, String insertSql, List<String> keyColumns,
+                                List<String> sumColumns, List<String> minColumns, List<String> maxColumns) {
+        // LEAST and GREATEST return NULL if either side is NULL, hence the COALESCEs
+        List<String> updates = new ArrayList<>();
+        for (String column : sumColumns) {
+            updates.add(column + " = " + column + " + VALUES(" + column + ")");
+        }
+        for (String column : minColumns) {
+            updates.add(column + " = LEAST(COALESCE(" + column + ", VALUES(" + column + ")), COALESCE(VALUES("
+                    + column + "), " + column + "))");
+        }
+        for (String column : maxColumns) {
+            updates.add(column + " = GREATEST(COALESCE(" + column + ", VALUES(" + column + ")), COALESCE(VALUES("
+                    + column + "), " + column + "))");
+        }
+        return insertSql + " ON DUPLICATE KEY UPDATE " + String.join(", ", updates);
+    }
+
+    @Override
+    public String dropIndexSql(String table, String index) {
+        return "ALTER TABLE " + table + " DROP INDEX " + index;
+    }
+
+    /**
+     * Adds up the worst-case key length; utf8mb4 takes up to 4 bytes per character
+     */
+    @Override
+    public boolean fitsIndex(List<String> sqlTypes) {
+        int bytes = 0;
+        for (String sqlType : sqlTypes) {
+            String type = sqlType.toUpperCase();
+            int open = type.indexOf('(');
+            int length = open > 0 ? Integer.parseInt(type.substring(open + 1).split("[,)]")[0].trim()) : 0;
+            if (type.startsWith("VARCHAR") || type.startsWith("CHAR")) {
+                bytes += 4 * length + 2;
+            } else if (type.startsWith("DECIMAL") || type.startsWith("NUMERIC")) {
+                bytes += length / 2 + 1;
+            } else if (type.startsWith("BIGINT") || type.startsWith("DOUBLE") || type.startsWith("DATETIME")) {
+                bytes += 8;
+            } else if (type.startsWith("TEXT") || type.startsWith("BLOB")) {
+                return false; // Only indexable with a prefix length
+            } else {
+                bytes += 4;
+            }
+        }
+        return bytes <= MAX_INDEX_KEY_BYTES;
+    }
+
+    @Override
+    public void beginBulkLoad(Statement stmt) throws SQLException {
+        // Rows are staged in hierarchy order and deduplicated already
+        stmt.execute("SET unique_checks = 0");
+        stmt.execute("SET foreign_key_checks = 0");
+    }
+
+    @Override
+    public void endBulkLoad(Statement stmt) throws SQLException {
+        stmt.execute("SET unique_checks = 1");
+        stmt.execute("SET foreign_key_checks = 1");
+    }
+
+    @Override
+    public void bulkLoad(Connection conn, String table, List<String> columns, Path file) throws SQLException {
+        String path = file.toAbsolutePath().toString().replace('\\', '/').replace("'", "\\'");
+        try (Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("LOAD DATA LOCAL INFILE '" + path + "' INTO TABLE " + table +
+                    " CHARACTER SET utf8mb4 FIELDS TERMINATED BY '\\t' ESCAPED BY '\\\\' LINES TERMINATED BY '\\n' (" +
+                    String.join(", ", columns) + ")");
+        }
+    }
+}
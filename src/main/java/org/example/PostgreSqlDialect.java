@@ -0,0 +1,129 @@
+package org.example;
+
+import com.zaxxer.hikari.HikariConfig;
+import org.postgresql.PGConnection;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * PostgreSQL: IDENTITY ids, multi-row INSERTs through reWriteBatchedInserts,
+ * ON CONFLICT upserts and COPY ... FROM STDIN.
+ */
+public class PostgreSqlDialect extends SqlDialect {
+    private static final String DUPLICATE_OBJECT = "42P07";
+
+    @Override
+    public String getName() {
+        return "PostgreSQL";
+    }
+
+    @Override
+    public String getDefaultServerUrl() {
+        return "jdbc:postgresql://localhost:5432/";
+    }
+
+    @Override
+    public String getAdminUrl(String serverUrl) {
+        return serverUrl + "postgres"; // PostgreSQL always connects to some database
+    }
+
+    @Override
+    public void configurePool(HikariConfig config) {
+        config.addDataSourceProperty("reWriteBatchedInserts", "true");
+        config.addDataSourceProperty("prepareThreshold", "3");
+    }
+
+    @Override
+    public boolean databaseExists(Connection adminConn, String dbName) throws SQLException {
+        try (PreparedStatement stmt = adminConn.prepareStatement("SELECT 1 FROM pg_database WHERE datname = ?")) {
+            stmt.setString(1, dbName.toLowerCase());
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    @Override
+    public String getIdColumn() {
+        // BY DEFAULT so that ids from IdAllocator and the bulk loader can still be written explicitly
+        return "id INT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY";
+    }
+
+    @Override
+    public String getDoubleType() {
+        return "DOUBLE PRECISION";
+    }
+
+    @Override
+    public boolean isAlreadyExists(SQLException e) {
+        return DUPLICATE_OBJECT.equals(e.getSQLState());
+    }
+
+    @Override
+    public String getMetadataSchema(String dbName) {
+        return "public"; // Each database keeps its tables in the default schema
+    }
+
+    @Override
+    public String upsertEntitySql(String insertSql, List<String> keyColumns) {
+        // DO NOTHING returns no row on a conflict, so the no-op update is what makes RETURNING see it
+        String key = keyColumns.get(0);
+        return insertSql + " ON CONFLICT (" + String.join(", ", keyColumns) + ") DO UPDATE SET "
+                + key + " = EXCLUDED." + key + " RETURNING id";
+    }
+
+    @Override
+    public boolean upsertReturnsRow() {
+        return true;
+    }
+
+    @Override
+    public String insertIgnoreSql(String insertSql) {
+        return insertSql + " ON CONFLICT DO NOTHING";
+    }
+
+    @Override
+    public String accumulateSql(String table, String insertSql, List<String> keyColumns,
+                                List<String> sumColumns, List<String> minColumns, List<String> maxColumns) {
+        // LEAST and GREATEST ignore NULL arguments in PostgreSQL
+        List<String> updates = new ArrayList<>();
+        for (String column : sumColumns) {
+            updates.add(column + " = " + table + "." + column + " + EXCLUDED." + column);
+        }
+        for (String column : minColumns) {
+            updates.add(column + " = LEAST(" + table + "." + column + ", EXCLUDED." + column + ")");
+        }
+        for (String column : maxColumns) {
+            updates.add(column + " = GREATEST(" + table + "." + column + ", EXCLUDED." + column + ")");
+        }
+        return insertSql + " ON CONFLICT (" + String.join(", ", keyColumns) + ") DO UPDATE SET "
+                + String.join(", ", updates);
+    }
+
+    @Override
+    public String dropIndexSql(String table, String index) {
+        return "DROP INDEX " + index;
+    }
+
+    @Override
+    public void bulkLoad(Connection conn, String table, List<String> columns, Path file)
+            throws SQLException, IOException {
+        try (Reader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            conn.unwrap(PGConnection.class).getCopyAPI().copyIn(
+                    "COPY " + table + " (" + String.join(", ", columns) + ") FROM STDIN", in);
+        }
+    }
+
+    @Override
+    public void syncIdentity(Statement stmt, String table, long lastId) throws SQLException {
+        // Explicit ids do not advance the identity sequence, so move it past them
+        stmt.execute("SELECT setval(pg_get_serial_sequence('" + table + "', 'id'), " + lastId + ")");
+    }
+}
@@ -0,0 +1,305 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Brings the tables of the current database in line with a SchemaModel. The model is compared with
+ * the tables, columns and unique keys the database already has, and only the missing CREATE TABLE,
+ * ALTER TABLE ... ADD COLUMN and CREATE INDEX statements are run. Each table is changed on its own
+ * pooled connection, and a table starts as soon as the tables its foreign keys reference are done,
+ * so the entity tables are set up in parallel, the relationship table follows them and the fact
+ * and rollup tables, which are filled from the relationship table, come last.
+ */
+public class SchemaApplier {
+    private static final Logger log = LoggerFactory.getLogger(SchemaApplier.class);
+
+    /**
+     * Statements for one table, run in order once the tables it depends on are done
+     */
+    private static class TableChange {
+        final String table;
+        final Set<String> dependsOn;
+        final List<String> statements = new ArrayList<>();
+
+        TableChange(String table, Collection<String> dependsOn) {
+            this.table = table;
+            this.dependsOn = new LinkedHashSet<>(dependsOn);
+        }
+    }
+
+    /**
+     * Applies a model to the current database
+     * @param model The compiled meta-model
+     * @return true if every needed change was applied
+     */
+    public static boolean apply(SchemaModel model) {
+        long start = System.nanoTime();
+        String dbName = DatabaseConnector.getDatabaseName();
+
+        List<TableChange> changes;
+        try (Connection conn = DatabaseConnector.getConnection()) {
+            // Read the current tables; the hierarchy is taken from the model, entity_hierarchy may not exist yet
+            SchemaCatalog.useModel(model);
+            changes = diff(model, SchemaCatalog.get(conn));
+        } catch (SQLException e) {
+            log.error("Could not read the schema of {}: {}", dbName, e.getMessage());
+            return false;
+        }
+
+        int statements = changes.stream().mapToInt(change -> change.statements.size()).sum();
+        if (statements == 0) {
+            log.info("Schema of {} is up to date.", dbName);
+            return true;
+        }
+
+        boolean applied = run(changes);
+        SchemaCatalog.useModel(model); // Reload the metadata of the changed tables
+        HierarchyIndex.clear();
+
+        if (log.isInfoEnabled()) {
+            double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+            log.info("Applied {} schema statements to {} in {} s", statements, dbName, String.format("%.2f", seconds));
+        }
+        return applied;
+    }
+
+    /**
+     * Lists the statements that turn the tables described by the catalog into the model's tables
+     */
+    private static List<TableChange> diff(SchemaModel model, SchemaCatalog catalog) {
+        SqlDialect dialect = SqlDialect.current();
+        List<TableChange> changes = new ArrayList<>();
+
+        for (SchemaModel.Entity entity : model.getEntities()) {
+            String table = entity.getName();
+            TableChange change = new TableChange(table, Collections.emptyList());
+            List<String> columns = catalog.getColumns(table);
+            List<String> naturalKey = XSDToSQLConverter.getIndexedKey(entity);
+
+            if (columns.isEmpty()) {
+                change.statements.add(XSDToSQLConverter.createEntityTable(entity));
+                if (!naturalKey.isEmpty()) {
+                    change.statements.add(XSDToSQLConverter.createUniqueIndex(table, naturalKey));
+                }
+            } else {
+                // Attributes added to the meta-model since the table was created
+                for (SchemaModel.Attribute attr : entity.getAttributes()) {
+                    if (!columns.contains(attr.getName())) {
+                        change.statements.add("ALTER TABLE " + table + " ADD COLUMN " + attr.getName() + " "
+                                + XSDToSQLConverter.columnType(attr));
+                    }
+                }
+                // Column order does not change what a unique index enforces
+                List<String> existingKey = catalog.getNaturalKey(table);
+                if (!naturalKey.isEmpty() && !new HashSet<>(existingKey).equals(new HashSet<>(naturalKey))) {
+                    String existingIndex = catalog.getNaturalKeyIndex(table);
+                    if (existingIndex != null) {
+                        change.statements.add(dialect.dropIndexSql(table, existingIndex));
+                    }
+                    change.statements.add(XSDToSQLConverter.createUniqueIndex(table, naturalKey));
+                }
+            }
+            changes.add(change);
+        }
+
+        if (model.getLeafEntity() != null) {
+            String table = XSDToSQLConverter.getRelationshipTable(model);
+            List<String> idColumns = XSDToSQLConverter.getRelationshipColumns(model);
+            TableChange change = new TableChange(table, model.getHierarchyPath());
+            List<String> columns = catalog.getColumns(table);
+
+            if (columns.isEmpty()) {
+                change.statements.add(XSDToSQLConverter.createRelationshipTable(model));
+                change.statements.add(XSDToSQLConverter.createUniqueIndex(table, idColumns));
+            } else {
+                for (String column : idColumns) {
+                    if (!columns.contains(column)) {
+                        // A NOT NULL foreign key cannot be added to rows that have no value for it
+                        log.warn("Relationship table {} has no column {}; recreate it to change the hierarchy.",
+                                table, column);
+                    }
+                }
+                if (catalog.getNaturalKey(table).isEmpty() && columns.containsAll(idColumns)) {
+                    change.statements.add(XSDToSQLConverter.createUniqueIndex(table, idColumns));
+                }
+            }
+            changes.add(change);
+
+            // The fact table is filled from the relationship table once, when it is created
+            FactTable facts = FactTable.forModel(model);
+            TableChange factChange = new TableChange(facts.getTable(), List.of(table));
+            List<String> factColumns = catalog.getColumns(facts.getTable());
+            if (factColumns.isEmpty()) {
+                factChange.statements.add(XSDToSQLConverter.createFactTable(model));
+                factChange.statements.add(XSDToSQLConverter.createUniqueIndex(facts.getTable(), facts.getIdColumns()));
+                factChange.statements.add(facts.getBackfillSql());
+            } else {
+                // Paths appended before the column existed keep NULL in it
+                for (String entity : model.getHierarchyPath()) {
+                    for (SchemaModel.Attribute attr : FactTable.getAttributes(model, entity)) {
+                        String column = FactTable.getColumn(entity, attr.getName());
+                        if (!factColumns.contains(column)) {
+                            factChange.statements.add("ALTER TABLE " + facts.getTable() + " ADD COLUMN " + column + " "
+                                    + XSDToSQLConverter.columnType(attr));
+                        }
+                    }
+                }
+            }
+            changes.add(factChange);
+
+            // Rollup tables are derived data: one whose measures no longer match the model is rebuilt
+            HierarchyRollup rollup = HierarchyRollup.forModel(model);
+            if (rollup != null) {
+                for (String level : rollup.getLevels()) {
+                    String rollupTable = HierarchyRollup.getTableName(level);
+                    TableChange rollupChange = new TableChange(rollupTable, List.of(table));
+                    List<String> rollupColumns = catalog.getColumns(rollupTable);
+                    if (!rollupColumns.equals(withId(rollup.getColumns(level)))) {
+                        if (!rollupColumns.isEmpty()) {
+                            rollupChange.statements.add("DROP TABLE " + rollupTable);
+                        }
+                        rollupChange.statements.add(XSDToSQLConverter.createRollupTable(model, rollup, level));
+                        rollupChange.statements.add(XSDToSQLConverter.createUniqueIndex(rollupTable,
+                                List.of(level + "_id")));
+                        rollupChange.statements.add(rollup.getBackfillSql(level));
+                    }
+                    changes.add(rollupChange);
+                }
+            }
+        }
+
+        TableChange hierarchy = new TableChange("entity_hierarchy", Collections.emptyList());
+        if (catalog.getColumns("entity_hierarchy").isEmpty()) {
+            hierarchy.statements.add(XSDToSQLConverter.createHierarchyTable());
+        }
+        if (catalog.getNaturalKey("entity_hierarchy").isEmpty()) {
+            hierarchy.statements.add(XSDToSQLConverter.createUniqueIndex("entity_hierarchy",
+                    List.of("parent_entity", "child_entity")));
+        }
+        // Relations dropped from the model are removed, so the stored hierarchy converges on the model's
+        Map<String, Set<String>> stored = storedHierarchy();
+        Map<String, Set<String>> rules = model.getHierarchyRules();
+        Map<String, Set<String>> stale = difference(stored, rules);
+        if (!stale.isEmpty()) {
+            hierarchy.statements.add(XSDToSQLConverter.deleteHierarchy(stale));
+        }
+        String hierarchyInsert = XSDToSQLConverter.insertHierarchy(model);
+        if (hierarchyInsert != null && !difference(rules, stored).isEmpty()) {
+            hierarchy.statements.add(hierarchyInsert);
+        }
+        changes.add(hierarchy);
+
+        return changes;
+    }
+
+    private static List<String> withId(List<String> columns) {
+        List<String> withId = new ArrayList<>(columns.size() + 1);
+        withId.add("id");
+        withId.addAll(columns);
+        return withId;
+    }
+
+    /**
+     * Reads the parent/child pairs in entity_hierarchy
+     * @return Children per parent; empty if the table does not exist yet
+     */
+    private static Map<String, Set<String>> storedHierarchy() {
+        Map<String, Set<String>> stored = new HashMap<>();
+        try (Connection conn = DatabaseConnector.getConnection();
+             Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT parent_entity, child_entity FROM entity_hierarchy")) {
+            while (rs.next()) {
+                stored.computeIfAbsent(rs.getString(1), k -> new HashSet<>()).add(rs.getString(2));
+            }
+        } catch (SQLException e) {
+            stored.clear();
+        }
+        return stored;
+    }
+
+    /**
+     * @return The parent/child pairs of the first hierarchy that the second one does not have
+     */
+    private static Map<String, Set<String>> difference(Map<String, Set<String>> hierarchy,
+                                                       Map<String, Set<String>> other) {
+        Map<String, Set<String>> difference = new LinkedHashMap<>();
+        hierarchy.forEach((parent, children) -> {
+            for (String child : children) {
+                if (!other.getOrDefault(parent, Collections.emptySet()).contains(child)) {
+                    difference.computeIfAbsent(parent, k -> new LinkedHashSet<>()).add(child);
+                }
+            }
+        });
+        return difference;
+    }
+
+    /**
+     * Runs the changes along their dependencies, each table on its own pooled connection
+     * @return true if all changes succeeded
+     */
+    private static boolean run(List<TableChange> changes) {
+        Map<String, CompletableFuture<Void>> done = new HashMap<>();
+        List<String> failures = Collections.synchronizedList(new ArrayList<>());
+        Semaphore connections = new Semaphore(Math.max(1, DatabaseConnector.getMaximumPoolSize() - 1));
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (TableChange change : changes) {
+                CompletableFuture<?>[] dependencies = change.dependsOn.stream()
+                        .map(done::get)
+                        .filter(Objects::nonNull)
+                        .toArray(CompletableFuture<?>[]::new);
+                done.put(change.table, CompletableFuture.allOf(dependencies).thenRunAsync(() -> {
+                    connections.acquireUninterruptibly();
+                    try {
+                        applyChange(change);
+                    } catch (SQLException e) {
+                        failures.add(change.table + ": " + e.getMessage());
+                        throw new CompletionException(e);
+                    } finally {
+                        connections.release();
+                    }
+                }, executor));
+            }
+
+            try {
+                CompletableFuture.allOf(done.values().toArray(new CompletableFuture<?>[0])).join();
+            } catch (CompletionException e) {
+                // Reported below; tables that depend on a failed one were not touched
+            }
+        }
+
+        for (String failure : failures) {
+            log.error("Schema change failed for {}", failure);
+        }
+        return failures.isEmpty();
+    }
+
+    private static void applyChange(TableChange change) throws SQLException {
+        SqlDialect dialect = SqlDialect.current();
+        try (Connection conn = DatabaseConnector.getConnection();
+             Statement stmt = conn.createStatement()) {
+            for (String sql : change.statements) {
+                long start = System.nanoTime();
+                try {
+                    stmt.executeUpdate(sql);
+                    IngestionMetrics.roundTrip("ddl " + change.table, System.nanoTime() - start);
+                    if (log.isDebugEnabled()) {
+                        log.debug("SQL statement executed successfully: {}",
+                                sql.length() > 50 ? sql.substring(0, 50) + "..." : sql);
+                    }
+                } catch (SQLException e) {
+                    // Another run may have created it in the meantime
+                    if (!dialect.isAlreadyExists(e)) {
+                        throw e;
+                    }
+                    IngestionMetrics.roundTrip("ddl " + change.table, System.nanoTime() - start);
+                }
+            }
+        }
+    }
+}
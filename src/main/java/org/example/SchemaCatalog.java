@@ -0,0 +1,307 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * Snapshot of the schema metadata the insert path needs: the hierarchy rules, the leaf entity,
+ * the columns of every table with their types and the unique natural key of each table.
+ * The hierarchy comes from the SchemaModel the tables were created from, or from entity_hierarchy
+ * when the run did not create them; the rest is loaded from the database metadata. The snapshot
+ * is reused until DatabaseConnector runs DDL or the target database changes.
+ */
+public class SchemaCatalog {
+    private static final Logger log = LoggerFactory.getLogger(SchemaCatalog.class);
+
+    private static SchemaCatalog current;
+
+    // Model applied to the current database in this run, with the database it was applied to
+    private static SchemaModel model;
+    private static String modelDatabase;
+
+    private final String databaseName;
+    private final Map<String, Set<String>> hierarchyRules;
+    private final String leafEntity;
+    private final Map<String, List<String>> tableColumns;
+    private final Map<String, List<String>> naturalKeys;
+    private final Map<String, String> naturalKeyIndexes;
+    private final Map<String, Map<String, ColumnType>> columnTypes;
+    private FactTable factTable;
+    private HierarchyRollup rollup;
+
+    private SchemaCatalog(String databaseName, Map<String, Set<String>> hierarchyRules, String leafEntity,
+                          Map<String, List<String>> tableColumns, Map<String, List<String>> naturalKeys,
+                          Map<String, String> naturalKeyIndexes, Map<String, Map<String, ColumnType>> columnTypes) {
+        this.databaseName = databaseName;
+        this.hierarchyRules = hierarchyRules;
+        this.leafEntity = leafEntity;
+        this.tableColumns = tableColumns;
+        this.naturalKeys = naturalKeys;
+        this.naturalKeyIndexes = naturalKeyIndexes;
+        this.columnTypes = columnTypes;
+    }
+
+    /**
+     * Gets the catalog of the current database, loading it if it is not cached yet
+     * @param conn Connection used to load the catalog
+     * @return The catalog
+     */
+    public static synchronized SchemaCatalog get(Connection conn) throws SQLException {
+        String dbName = DatabaseConnector.getDatabaseName();
+        if (current == null || !Objects.equals(current.databaseName, dbName)) {
+            current = load(conn, dbName);
+        }
+        return current;
+    }
+
+    /**
+     * Drops the cached catalog so the next call to get reloads it
+     */
+    public static synchronized void invalidate() {
+        current = null;
+    }
+
+    /**
+     * Takes the hierarchy from a compiled model instead of reading it back from entity_hierarchy
+     * @param schemaModel Model the tables of the current database were created from
+     */
+    public static synchronized void useModel(SchemaModel schemaModel) {
+        model = schemaModel;
+        modelDatabase = DatabaseConnector.getDatabaseName();
+        current = null;
+    }
+
+    /**
+     * @return Allowed child entities per parent entity
+     */
+    public Map<String, Set<String>> getHierarchyRules() {
+        return hierarchyRules;
+    }
+
+    /**
+     * @return The entity at the bottom of the hierarchy, or null if there is no hierarchy
+     */
+    public String getLeafEntity() {
+        return leafEntity;
+    }
+
+    /**
+     * @return Entity names from the leaf up to the root, empty if there is no hierarchy
+     */
+    public List<String> getHierarchyPath() {
+        Map<String, String> parentOf = new HashMap<>();
+        hierarchyRules.forEach((parent, children) -> children.forEach(child -> parentOf.put(child, parent)));
+
+        List<String> path = new ArrayList<>();
+        for (String entity = leafEntity; entity != null && !path.contains(entity); entity = parentOf.get(entity)) {
+            path.add(entity);
+        }
+        return path;
+    }
+
+    /**
+     * @return The fact table of the leaf entity, or null if the database has none
+     */
+    public FactTable getFactTable() {
+        return factTable;
+    }
+
+    /**
+     * @return The rollup tables of the hierarchy's levels, or null if the database has none
+     */
+    public HierarchyRollup getRollup() {
+        return rollup;
+    }
+
+    /**
+     * @param table Table name
+     * @return Column names in table order, empty if the table does not exist
+     */
+    public List<String> getColumns(String table) {
+        return tableColumns.getOrDefault(table, Collections.emptyList());
+    }
+
+    /**
+     * @param table Table name
+     * @return Columns of the table's unique index other than the primary key, empty if it has none
+     */
+    public List<String> getNaturalKey(String table) {
+        return naturalKeys.getOrDefault(table, Collections.emptyList());
+    }
+
+    /**
+     * @param table Table name
+     * @return Name of the unique index getNaturalKey comes from, or null if the table has none
+     */
+    public String getNaturalKeyIndex(String table) {
+        return naturalKeyIndexes.get(table);
+    }
+
+    /**
+     * @param table Entity table name
+     * @return Columns the inserters deduplicate entities on: the natural key, or every attribute column
+     * when the table has no unique index
+     */
+    public List<String> getDedupColumns(String table) {
+        List<String> key = getNaturalKey(table);
+        if (!key.isEmpty()) {
+            return key;
+        }
+        List<String> columns = new ArrayList<>(getColumns(table));
+        columns.remove("id");
+        return columns;
+    }
+
+    /**
+     * Picks the dedup key of a row out of the columns it sets
+     * @param table Entity table name
+     * @param columns Columns the row sets
+     * @param values Values of those columns, normalized
+     * @return Value of each dedup column, null where the row does not set it
+     */
+    public List<String> getDedupKey(String table, List<String> columns, List<String> values) {
+        List<String> dedupColumns = getDedupColumns(table);
+        List<String> key = new ArrayList<>(dedupColumns.size());
+        for (String column : dedupColumns) {
+            int i = columns.indexOf(column);
+            key.add(i >= 0 ? values.get(i) : null);
+        }
+        return key;
+    }
+
+    /**
+     * @param table Table name
+     * @param column Column name
+     * @return Type of the column, TEXT if it is unknown
+     */
+    public ColumnType getColumnType(String table, String column) {
+        return columnTypes.getOrDefault(table, Collections.emptyMap()).getOrDefault(column, ColumnType.TEXT);
+    }
+
+    /**
+     * @return Types of the given columns of a table, in the same order
+     */
+    public List<ColumnType> getColumnTypes(String table, List<String> columns) {
+        List<ColumnType> types = new ArrayList<>(columns.size());
+        for (String column : columns) {
+            types.add(getColumnType(table, column));
+        }
+        return types;
+    }
+
+    private static SchemaCatalog load(Connection conn, String dbName) throws SQLException {
+        Map<String, Set<String>> hierarchyRules;
+        String leafEntity;
+        if (model != null && Objects.equals(modelDatabase, dbName)) {
+            hierarchyRules = model.getHierarchyRules();
+            leafEntity = model.getLeafEntity();
+        } else {
+            hierarchyRules = new HashMap<>();
+            leafEntity = loadHierarchy(conn, hierarchyRules);
+        }
+
+        Map<String, List<String>> tableColumns = new HashMap<>();
+        try (PreparedStatement stmt = conn.prepareStatement(
+                "SELECT TABLE_NAME, COLUMN_NAME FROM information_schema.COLUMNS " +
+                        "WHERE TABLE_SCHEMA = ? ORDER BY TABLE_NAME, ORDINAL_POSITION")) {
+            stmt.setString(1, SqlDialect.current().getMetadataSchema(dbName));
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    tableColumns.computeIfAbsent(rs.getString(1), k -> new ArrayList<>()).add(rs.getString(2));
+                }
+            }
+        }
+
+        Map<String, List<String>> naturalKeys = new HashMap<>();
+        Map<String, String> naturalKeyIndexes = new HashMap<>();
+        Map<String, Map<String, ColumnType>> columnTypes = new HashMap<>();
+        for (String table : tableColumns.keySet()) {
+            Map.Entry<String, List<String>> key = loadNaturalKey(conn, table);
+            if (key != null) {
+                naturalKeyIndexes.put(table, key.getKey());
+                naturalKeys.put(table, key.getValue());
+            }
+            columnTypes.put(table, loadColumnTypes(conn, table));
+        }
+
+        log.info("Loaded hierarchy rules: {}", hierarchyRules);
+        log.info("Loaded column metadata for {} tables in {}", tableColumns.size(), dbName);
+        SchemaCatalog catalog = new SchemaCatalog(dbName, Collections.unmodifiableMap(hierarchyRules), leafEntity,
+                Collections.unmodifiableMap(tableColumns), Collections.unmodifiableMap(naturalKeys),
+                Collections.unmodifiableMap(naturalKeyIndexes), Collections.unmodifiableMap(columnTypes));
+        catalog.factTable = FactTable.forCatalog(catalog);
+        catalog.rollup = HierarchyRollup.forCatalog(catalog);
+        return catalog;
+    }
+
+    private static Map<String, ColumnType> loadColumnTypes(Connection conn, String table) throws SQLException {
+        Map<String, ColumnType> types = new HashMap<>();
+        try (ResultSet rs = conn.getMetaData().getColumns(conn.getCatalog(), null, table, null)) {
+            while (rs.next()) {
+                types.put(rs.getString("COLUMN_NAME").toLowerCase(),
+                        ColumnType.fromJdbcType(rs.getInt("DATA_TYPE"), rs.getInt("DECIMAL_DIGITS")));
+            }
+        }
+        return Collections.unmodifiableMap(types);
+    }
+
+    /**
+     * Reads the hierarchy rules from entity_hierarchy
+     * @return The leaf entity, or null if there is no hierarchy
+     */
+    private static String loadHierarchy(Connection conn, Map<String, Set<String>> hierarchyRules) throws SQLException {
+        Set<String> parents = new HashSet<>();
+        List<String> children = new ArrayList<>();
+
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT parent_entity, child_entity FROM entity_hierarchy ORDER BY id")) {
+            while (rs.next()) {
+                String parent = rs.getString("parent_entity");
+                String child = rs.getString("child_entity");
+
+                hierarchyRules.computeIfAbsent(parent, k -> new HashSet<>()).add(child);
+                parents.add(parent);
+                children.add(child);
+            }
+        }
+
+        // The leaf is the first child that never appears as a parent
+        for (String child : children) {
+            if (!parents.contains(child)) {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return Name and columns of the table's natural key index, or null if it has none
+     */
+    private static Map.Entry<String, List<String>> loadNaturalKey(Connection conn, String table) throws SQLException {
+        Map<String, List<String>> uniqueIndexes = new LinkedHashMap<>();
+        try (ResultSet rs = conn.getMetaData().getIndexInfo(conn.getCatalog(), null, table, true, true)) {
+            while (rs.next()) {
+                String column = rs.getString("COLUMN_NAME");
+                if (column != null) {
+                    uniqueIndexes.computeIfAbsent(rs.getString("INDEX_NAME"), k -> new ArrayList<>())
+                            .add(column.toLowerCase());
+                }
+            }
+        }
+
+        // Prefer the index XSDToSQLConverter generates; the primary key on id is not a natural key
+        List<String> generated = uniqueIndexes.get("uk_" + table);
+        if (generated != null) {
+            return Map.entry("uk_" + table, List.copyOf(generated));
+        }
+        for (Map.Entry<String, List<String>> index : uniqueIndexes.entrySet()) {
+            if (!index.getValue().equals(List.of("id"))) {
+                return Map.entry(index.getKey(), List.copyOf(index.getValue()));
+            }
+        }
+        return null;
+    }
+}
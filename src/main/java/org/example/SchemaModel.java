@@ -0,0 +1,334 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * Compiled form of a meta-model: entities with their typed attributes and relations, the leaf entity
+ * and the path from the leaf up to the root. XSDToSQLConverter emits the DDL from it and SchemaCatalog
+ * takes the hierarchy from it. The model is immutable and serializable; compiled models are cached
+ * under dm.schema.cache keyed by a hash of the meta-model file and the inferred types, so a repeat run
+ * against the same meta-model does not parse or validate the XML again.
+ */
+public final class SchemaModel implements Serializable {
+    private static final long serialVersionUID = 2L;
+    private static final Logger log = LoggerFactory.getLogger(SchemaModel.class);
+
+    /**
+     * Attribute of an entity and the column it maps to
+     */
+    public static final class Attribute implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final String type;
+        private final String inferredSqlType;
+        private final boolean key;
+
+        Attribute(String name, String type, String inferredSqlType, boolean key) {
+            this.name = name;
+            this.type = type;
+            this.inferredSqlType = inferredSqlType;
+            this.key = key;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The type declared in the meta-model, e.g. string or integer
+         */
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * @return SQL type proposed by TypeInferrer, or null to map the declared type
+         */
+        public String getInferredSqlType() {
+            return inferredSqlType;
+        }
+
+        /**
+         * @return true if the attribute is marked as part of the natural key
+         */
+        public boolean isKey() {
+            return key;
+        }
+    }
+
+    /**
+     * Parent-to-child relation declared on an entity
+     */
+    public static final class Relation implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final String name;
+        private final String target;
+
+        Relation(String name, String target) {
+            this.name = name;
+            this.target = target;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+    }
+
+    public static final class Entity implements Serializable {
+        private static final long serialVersionUID = 2L;
+
+        private final String name;
+        private final ArrayList<Attribute> attributes;
+        private final ArrayList<Relation> relations;
+
+        Entity(String name, List<Attribute> attributes, List<Relation> relations) {
+            this.name = name;
+            this.attributes = new ArrayList<>(attributes);
+            this.relations = new ArrayList<>(relations);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public List<Attribute> getAttributes() {
+            return Collections.unmodifiableList(attributes);
+        }
+
+        public List<Relation> getRelations() {
+            return Collections.unmodifiableList(relations);
+        }
+
+        /**
+         * @return The attributes marked key="true", or all attributes when none are marked
+         */
+        public List<String> getNaturalKey() {
+            List<String> all = new ArrayList<>();
+            List<String> marked = new ArrayList<>();
+            for (Attribute attribute : attributes) {
+                all.add(attribute.getName());
+                if (attribute.isKey()) {
+                    marked.add(attribute.getName());
+                }
+            }
+            return marked.isEmpty() ? all : marked;
+        }
+    }
+
+    // ArrayList rather than List so every field is serializable
+    private final ArrayList<Entity> entities;
+    private final String leafEntity;
+    private final ArrayList<String> hierarchyPath;
+
+    private SchemaModel(List<Entity> entities) {
+        this.entities = new ArrayList<>(entities);
+
+        Map<String, String> parentOf = new HashMap<>();
+        for (Entity entity : entities) {
+            for (Relation relation : entity.getRelations()) {
+                parentOf.put(relation.getTarget(), entity.getName());
+            }
+        }
+
+        // The leaf is the first entity that is nobody's parent
+        String leaf = null;
+        for (Entity entity : entities) {
+            if (!parentOf.containsValue(entity.getName())) {
+                leaf = entity.getName();
+                break;
+            }
+        }
+        this.leafEntity = leaf;
+
+        List<String> path = new ArrayList<>();
+        if (leaf != null) {
+            path.add(leaf);
+            String current = leaf;
+            while (parentOf.containsKey(current)) {
+                current = parentOf.get(current);
+                path.add(current);
+            }
+        }
+        this.hierarchyPath = new ArrayList<>(path);
+    }
+
+    public List<Entity> getEntities() {
+        return Collections.unmodifiableList(entities);
+    }
+
+    /**
+     * @return The entity with the given name, or null if the model has none
+     */
+    public Entity getEntity(String name) {
+        for (Entity entity : entities) {
+            if (entity.getName().equals(name)) {
+                return entity;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The entity at the bottom of the hierarchy, or null if there is none
+     */
+    public String getLeafEntity() {
+        return leafEntity;
+    }
+
+    /**
+     * @return Entity names from the leaf up to the root
+     */
+    public List<String> getHierarchyPath() {
+        return Collections.unmodifiableList(hierarchyPath);
+    }
+
+    /**
+     * @return Allowed child entities per parent entity
+     */
+    public Map<String, Set<String>> getHierarchyRules() {
+        Map<String, Set<String>> rules = new HashMap<>();
+        for (Entity entity : entities) {
+            for (Relation relation : entity.getRelations()) {
+                rules.computeIfAbsent(entity.getName(), k -> new HashSet<>()).add(relation.getTarget());
+            }
+        }
+        return rules;
+    }
+
+    /**
+     * Gets the compiled model of a meta-model, from the cache if it was compiled before
+     * @param metaMetaModelPath Path to the meta-meta-model XSD the meta-model is validated against
+     * @param metaModelPath Path to the meta-model XML file
+     * @param inferredTypes SQL types from TypeInferrer, keyed by entity name and attribute name
+     * @return The cached model, or null if the meta-model has not been compiled with this XSD and these
+     * types yet
+     */
+    public static SchemaModel loadCached(String metaMetaModelPath, String metaModelPath,
+                                         Map<String, Map<String, String>> inferredTypes) {
+        Path cacheFile = cacheFile(metaMetaModelPath, metaModelPath, inferredTypes);
+        if (cacheFile == null || !Files.exists(cacheFile)) {
+            return null;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(cacheFile)))) {
+            SchemaModel model = (SchemaModel) in.readObject();
+            log.info("Using compiled schema model {}", cacheFile);
+            return model;
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            log.warn("Ignoring unreadable schema model cache {}: {}", cacheFile, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Parses a meta-model into a model and stores it in the cache
+     * @param metaMetaModelPath Path to the meta-meta-model XSD the meta-model was validated against
+     * @param metaModelPath Path to the meta-model XML file, validated against the meta-meta-model
+     * @param inferredTypes SQL types from TypeInferrer, keyed by entity name and attribute name
+     * @return The model
+     */
+    public static SchemaModel compile(String metaMetaModelPath, String metaModelPath,
+                                      Map<String, Map<String, String>> inferredTypes) throws IOException {
+        Document document;
+        try {
+            DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            document = builder.parse(new File(metaModelPath));
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException("Could not parse meta-model " + metaModelPath, e);
+        }
+
+        List<Entity> entities = new ArrayList<>();
+        NodeList entityElements = document.getElementsByTagName("Enitity");
+        for (int i = 0; i < entityElements.getLength(); i++) {
+            Element entityElement = (Element) entityElements.item(i);
+            String name = entityElement.getAttribute("Name");
+            Map<String, String> entityTypes = inferredTypes.getOrDefault(name, Collections.emptyMap());
+
+            List<Attribute> attributes = new ArrayList<>();
+            NodeList attributeElements = entityElement.getElementsByTagName("attribute");
+            for (int j = 0; j < attributeElements.getLength(); j++) {
+                Element attr = (Element) attributeElements.item(j);
+                String attrName = attr.getAttribute("Name");
+                String type = attr.getAttribute("type");
+                // An explicit type in the meta-model wins; "string" is the default that inference narrows
+                String inferred = type.equalsIgnoreCase("string") ? entityTypes.get(attrName) : null;
+                attributes.add(new Attribute(attrName, type, inferred, Boolean.parseBoolean(attr.getAttribute("key"))));
+            }
+
+            List<Relation> relations = new ArrayList<>();
+            NodeList relationElements = entityElement.getElementsByTagName("relation");
+            for (int j = 0; j < relationElements.getLength(); j++) {
+                Element relation = (Element) relationElements.item(j);
+                relations.add(new Relation(relation.getAttribute("Name"), relation.getAttribute("target")));
+            }
+
+            entities.add(new Entity(name, attributes, relations));
+        }
+
+        SchemaModel model = new SchemaModel(entities);
+        store(model, cacheFile(metaMetaModelPath, metaModelPath, inferredTypes));
+        return model;
+    }
+
+    private static void store(SchemaModel model, Path cacheFile) {
+        if (cacheFile == null) {
+            return;
+        }
+        try {
+            Files.createDirectories(cacheFile.getParent());
+            Path tmp = Files.createTempFile(cacheFile.getParent(), "model-", ".tmp");
+            try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeObject(model);
+            }
+            Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("Could not cache the schema model: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * @return Cache file for a meta-model, the XSD it was validated against and inferred types, or null if
+     * caching is off or a file is unreadable
+     */
+    private static Path cacheFile(String metaMetaModelPath, String metaModelPath,
+                                  Map<String, Map<String, String>> inferredTypes) {
+        String dir = IngestionConfig.getSchemaCacheDir();
+        if (dir.isEmpty()) {
+            return null;
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            // A cached model was validated against this exact XSD; a changed XSD validates it again
+            digest.update(Files.readAllBytes(Paths.get(metaMetaModelPath)));
+            digest.update(Files.readAllBytes(Paths.get(metaModelPath)));
+            // Sorted at both levels so the key does not depend on the iteration order of the maps
+            Map<String, Map<String, String>> sortedTypes = new TreeMap<>();
+            inferredTypes.forEach((entity, types) -> sortedTypes.put(entity, new TreeMap<>(types)));
+            digest.update(sortedTypes.toString().getBytes(StandardCharsets.UTF_8));
+            digest.update(Long.toString(serialVersionUID).getBytes(StandardCharsets.UTF_8));
+            return Paths.get(dir, HexFormat.of().formatHex(digest.digest()) + ".ser");
+        } catch (IOException | NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package org.example;
+
+import com.zaxxer.hikari.HikariConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.*;
+import java.util.List;
+
+/**
+ * Everything that differs between the supported databases: connection URLs and pool settings,
+ * DDL details, metadata lookups, upsert syntax and the native bulk loader.
+ * The dialect is chosen with dm.db.dialect, or from the dm.db.url prefix, and defaults to MySQL.
+ */
+public abstract class SqlDialect {
+    private static final Logger log = LoggerFactory.getLogger(SqlDialect.class);
+
+    private static SqlDialect current;
+
+    /**
+     * Gets the configured dialect
+     * @return The dialect for dm.db.dialect / dm.db.url
+     */
+    public static synchronized SqlDialect current() {
+        if (current == null) {
+            String name = IngestionConfig.getDialectName();
+            if (name == null) {
+                String url = IngestionConfig.getServerUrl();
+                name = url != null && url.startsWith("jdbc:postgresql:") ? "postgresql" : "mysql";
+            }
+            current = switch (name.toLowerCase()) {
+                case "postgresql", "postgres", "pg" -> new PostgreSqlDialect();
+                case "mysql" -> new MySqlDialect();
+                default -> throw new IllegalArgumentException("Unsupported dm.db.dialect: " + name);
+            };
+            log.info("Using SQL dialect: {}", current.getName());
+        }
+        return current;
+    }
+
+    /**
+     * @return The database product name as reported by the JDBC driver
+     */
+    public abstract String getName();
+
+    /**
+     * Tells whether a connection really talks to this dialect's database, e.g. not to an embedded test database
+     */
+    public boolean matches(Connection conn) throws SQLException {
+        return conn.getMetaData().getDatabaseProductName().equalsIgnoreCase(getName());
+    }
+
+    /**
+     * @return Server URL used when dm.db.url is not set, ending in a slash
+     */
+    public abstract String getDefaultServerUrl();
+
+    /**
+     * @return URL of a connection that can create databases
+     */
+    public String getAdminUrl(String serverUrl) {
+        return serverUrl;
+    }
+
+    /**
+     * @return URL of a connection to the given database
+     */
+    public String getDatabaseUrl(String serverUrl, String dbName) {
+        return serverUrl + dbName;
+    }
+
+    /**
+     * Adds the driver settings that make batches and bulk loads fast
+     */
+    public abstract void configurePool(HikariConfig config);
+
+    /**
+     * @param adminConn Connection from getAdminUrl
+     * @return true if the database exists
+     */
+    public abstract boolean databaseExists(Connection adminConn, String dbName) throws SQLException;
+
+    /**
+     * @return Column definition of the generated id primary key
+     */
+    public abstract String getIdColumn();
+
+    /**
+     * @return SQL type for double precision floating point attributes
+     */
+    public String getDoubleType() {
+        return "DOUBLE";
+    }
+
+    /**
+     * Tells whether a failed CREATE statement failed only because the table or index already exists
+     */
+    public abstract boolean isAlreadyExists(SQLException e);
+
+    /**
+     * @return TABLE_SCHEMA under which information_schema lists the tables of the database
+     */
+    public String getMetadataSchema(String dbName) {
+        return dbName;
+    }
+
+    /**
+     * Turns an INSERT into one that resolves an existing row with the same natural key instead of failing
+     * @param insertSql INSERT INTO table (columns) VALUES (...)
+     * @param keyColumns Columns of the table's unique natural key
+     */
+    public abstract String upsertEntitySql(String insertSql, List<String> keyColumns);
+
+    /**
+     * @return true if upsertEntitySql returns the id as a result set, false if through the generated keys
+     */
+    public abstract boolean upsertReturnsRow();
+
+    /**
+     * Turns an INSERT into one that silently skips rows violating a unique key
+     */
+    public abstract String insertIgnoreSql(String insertSql);
+
+    /**
+     * Turns an INSERT of aggregate values into one that merges them into the existing row with the same key
+     * @param table Table the INSERT writes to
+     * @param insertSql INSERT INTO table (columns) VALUES (...)
+     * @param keyColumns Columns of the table's unique key
+     * @param sumColumns Columns whose new value is added to the stored one
+     * @param minColumns Columns that keep the smaller of both values, ignoring NULL
+     * @param maxColumns Columns that keep the larger of both values, ignoring NULL
+     */
+    public abstract String accumulateSql(String table, String insertSql, List<String> keyColumns,
+                                         List<String> sumColumns, List<String> minColumns, List<String> maxColumns);
+
+    /**
+     * Statement that drops an index of a table
+     */
+    public abstract String dropIndexSql(String table, String index);
+
+    /**
+     * Tells whether the database can build one index over columns of the given types
+     * @param sqlTypes Column types as written in the DDL
+     */
+    public boolean fitsIndex(List<String> sqlTypes) {
+        return true;
+    }
+
+    /**
+     * Prepares the session for a bulk load of pre-validated, deduplicated rows
+     */
+    public void beginBulkLoad(Statement stmt) throws SQLException {
+    }
+
+    /**
+     * Restores the session settings changed by beginBulkLoad
+     */
+    public void endBulkLoad(Statement stmt) throws SQLException {
+    }
+
+    /**
+     * Loads a tab-separated staging file (\N for NULL, backslash escapes) into a table
+     */
+    public abstract void bulkLoad(Connection conn, String table, List<String> columns, Path file)
+            throws SQLException, IOException;
+
+    /**
+     * Moves the table's id generator past ids that were written explicitly
+     * @param lastId Highest id in use
+     */
+    public void syncIdentity(Statement stmt, String table, long lastId) throws SQLException {
+    }
+}
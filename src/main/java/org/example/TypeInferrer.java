@@ -0,0 +1,171 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Samples a data XML file and proposes the tightest SQL type for every entity attribute,
+ * so XSDToSQLConverter can emit INT, BIGINT, DECIMAL, DATE, BOOLEAN or a sized VARCHAR
+ * instead of VARCHAR(255) for attributes the meta-model declares as string.
+ */
+public class TypeInferrer {
+    private static final Logger log = LoggerFactory.getLogger(TypeInferrer.class);
+
+    private static final Pattern INTEGER = Pattern.compile("-?(0|[1-9][0-9]*)");
+    private static final Pattern DECIMAL = Pattern.compile("-?(0|[1-9][0-9]*)\\.[0-9]+");
+    private static final Pattern DATE = Pattern.compile("[0-9]{4}-[0-9]{2}-[0-9]{2}");
+    private static final int MAX_DECIMAL_PRECISION = 65;
+    private static final int MAX_VARCHAR_LENGTH = 255;
+
+    /**
+     * What the sampled values of one attribute have in common
+     */
+    private static class ColumnStats {
+        boolean allBoolean = true;
+        boolean allInteger = true;
+        boolean allDecimal = true;
+        boolean allDate = true;
+        boolean fitsInt = true;
+        boolean fitsLong = true;
+        int maxIntegerDigits;
+        int maxScale;
+        int maxLength;
+        long values;
+
+        void add(String value) {
+            values++;
+            maxLength = Math.max(maxLength, value.length());
+
+            allBoolean &= value.equalsIgnoreCase("true") || value.equalsIgnoreCase("false");
+
+            // Leading zeros (zip codes, article numbers) would be lost in a numeric column
+            boolean integer = INTEGER.matcher(value).matches();
+            boolean decimal = integer || DECIMAL.matcher(value).matches();
+            allInteger &= integer;
+            allDecimal &= decimal;
+            if (decimal) {
+                String digits = value.startsWith("-") ? value.substring(1) : value;
+                int point = digits.indexOf('.');
+                maxIntegerDigits = Math.max(maxIntegerDigits, point < 0 ? digits.length() : point);
+                maxScale = Math.max(maxScale, point < 0 ? 0 : digits.length() - point - 1);
+            }
+            if (integer) {
+                try {
+                    long number = Long.parseLong(value);
+                    fitsInt &= number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE;
+                } catch (NumberFormatException e) {
+                    fitsInt = false;
+                    fitsLong = false;
+                }
+            }
+
+            if (allDate) {
+                allDate = DATE.matcher(value).matches() && isDate(value);
+            }
+        }
+
+        String toSqlType(boolean complete) {
+            if (values == 0) {
+                return "VARCHAR(" + MAX_VARCHAR_LENGTH + ")";
+            }
+            if (allBoolean) {
+                return "BOOLEAN";
+            }
+            // A partial sample may not have seen the largest values, so leave some headroom
+            if (allInteger && fitsInt && complete) {
+                return "INT";
+            }
+            if (allInteger && fitsLong) {
+                return "BIGINT";
+            }
+            if (allDecimal) {
+                int precision = maxIntegerDigits + maxScale + (complete ? 0 : 2);
+                if (precision <= MAX_DECIMAL_PRECISION) {
+                    return "DECIMAL(" + Math.max(precision, 1) + ", " + maxScale + ")";
+                }
+            }
+            if (allDate) {
+                return "DATE";
+            }
+            int length = complete ? maxLength : Math.max(16, Integer.highestOneBit(Math.max(1, maxLength)) << 1);
+            return length <= MAX_VARCHAR_LENGTH ? "VARCHAR(" + Math.max(length, 1) + ")" : "TEXT";
+        }
+    }
+
+    /**
+     * Proposes column types for all entity attributes found in the data file
+     * @param xmlFilePath Path to the data XML file
+     * @param sampleElements Number of elements to look at, 0 to read the whole file
+     * @return SQL types keyed by entity name and attribute name; empty if the file could not be read
+     */
+    public static Map<String, Map<String, String>> inferColumnTypes(String xmlFilePath, int sampleElements) {
+        Map<String, Map<String, ColumnStats>> stats = new LinkedHashMap<>();
+        boolean complete = true;
+        long elements = 0;
+
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        try (InputStream in = new BufferedInputStream(new FileInputStream(xmlFilePath))) {
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            try {
+                while (reader.hasNext()) {
+                    if (reader.next() != XMLStreamConstants.START_ELEMENT) {
+                        continue;
+                    }
+                    if (sampleElements > 0 && elements >= sampleElements) {
+                        complete = false;
+                        break;
+                    }
+                    elements++;
+
+                    Map<String, ColumnStats> entityStats =
+                            stats.computeIfAbsent(reader.getLocalName(), k -> new LinkedHashMap<>());
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        entityStats.computeIfAbsent(reader.getAttributeLocalName(i), k -> new ColumnStats())
+                                .add(reader.getAttributeValue(i));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException | XMLStreamException e) {
+            log.error("Could not infer column types from {}", xmlFilePath, e);
+            return Collections.emptyMap();
+        }
+
+        Map<String, Map<String, String>> types = new LinkedHashMap<>();
+        for (Map.Entry<String, Map<String, ColumnStats>> entity : stats.entrySet()) {
+            Map<String, String> columns = new LinkedHashMap<>();
+            for (Map.Entry<String, ColumnStats> column : entity.getValue().entrySet()) {
+                columns.put(column.getKey(), column.getValue().toSqlType(complete));
+            }
+            types.put(entity.getKey(), columns);
+        }
+
+        log.info("Inferred column types from {} elements{}: {}", elements,
+                complete ? "" : " (sampled, widened for unseen values)", types);
+        return types;
+    }
+
+    private static boolean isDate(String value) {
+        try {
+            LocalDate.parse(value);
+            return true;
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+}
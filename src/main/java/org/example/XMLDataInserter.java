@@ -1,87 +1,633 @@
 package org.example;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.w3c.dom.*;
 import javax.xml.parsers.*;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class XMLDataInserter {
+    private static final Logger log = LoggerFactory.getLogger(XMLDataInserter.class);
+
     public static void insertStoreData(String xmlFilePath) {
         try {
-            System.out.println("Parsing XML data from " + xmlFilePath);
+            log.info("Parsing XML data from {}", xmlFilePath);
             DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
             DocumentBuilder builder = factory.newDocumentBuilder();
             Document document = builder.parse(new File(xmlFilePath));
             Element root = document.getDocumentElement();
+            IngestionMetrics.startRun(xmlFilePath, 0, document.getElementsByTagName("*").getLength());
 
             try (Connection conn = DatabaseConnector.getConnection()) {
                 // Load hierarchy rules from the database
-                Map<String, Set<String>> hierarchyRules = loadHierarchyRules(conn);
+                SchemaCatalog catalog = SchemaCatalog.get(conn);
+                Map<String, Set<String>> hierarchyRules = catalog.getHierarchyRules();
+                EntityDedupIndex.clear();
+
+                // Validate and insert in one pass; the whole document is one transaction so a
+                // violation anywhere leaves the database untouched
+                try (BatchWriter writer = new BatchWriter(conn, IngestionConfig.getBatchSize(), 0)) {
+                    try {
+                        Map<String, Integer> contextMap = new HashMap<>();
+                        if (!processElement(writer, root, contextMap, hierarchyRules)) {
+                            writer.rollback();
+                            log.warn("XML hierarchy validation failed. Data has not been inserted.");
+                            return;
+                        }
+                        writer.finish();
+                    } catch (SQLException e) {
+                        writer.rollback();
+                        throw e;
+                    }
+                }
+
+                log.info("Data insertion completed successfully.");
+            }
+        } catch (Exception e) {
+            log.error("Inserting {} failed", xmlFilePath, e);
+        } finally {
+            IngestionMetrics.finishRun();
+        }
+    }
 
-                // Validate the XML structure against the hierarchy rules
-                if (!validateXmlHierarchy(root, hierarchyRules)) {
-                    System.out.println("XML hierarchy validation failed. Data will not be inserted.");
-                    return;
+    /**
+     * Checks the data XML against the hierarchy rules without writing anything. Unlike the insert
+     * modes it does not stop at the first violation but reports all of them with their line numbers.
+     * @param xmlFilePath Path to the data XML file
+     * @return Number of violations found, or -1 if the file or the rules could not be read
+     */
+    public static int validateStoreData(String xmlFilePath) {
+        log.info("Validating XML data from {}", xmlFilePath);
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+
+        try (InputStream in = new BufferedInputStream(new FileInputStream(xmlFilePath))) {
+            Map<String, Set<String>> hierarchyRules;
+            try (Connection conn = DatabaseConnector.getConnection()) {
+                hierarchyRules = SchemaCatalog.get(conn).getHierarchyRules();
+            }
+
+            int violations = 0;
+            long elements = 0;
+            Deque<String> tags = new ArrayDeque<>();
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            try {
+                while (reader.hasNext()) {
+                    int event = reader.next();
+                    if (event == XMLStreamConstants.START_ELEMENT) {
+                        String tag = reader.getLocalName();
+                        String parent = tags.peek();
+                        if (parent != null && !isAllowedChild(parent, tag, hierarchyRules)) {
+                            violations++;
+                            log.warn("Hierarchy violation: {} cannot be a child of {} (line {})", tag, parent,
+                                    reader.getLocation().getLineNumber());
+                        }
+                        tags.push(tag);
+                        elements++;
+                    } else if (event == XMLStreamConstants.END_ELEMENT) {
+                        tags.pop();
+                    }
                 }
+            } finally {
+                reader.close();
+            }
 
-                System.out.println("XML hierarchy validation successful. Proceeding with data insertion.");
+            log.info("Checked {} elements: {}", elements, violations == 0
+                    ? "no hierarchy violations." : violations + " hierarchy violation(s).");
+            return violations;
+        } catch (SQLException | XMLStreamException | IOException e) {
+            log.error("Validating {} failed", xmlFilePath, e);
+            return -1;
+        }
+    }
 
-                // Process and insert the XML data
-                Map<String, Integer> contextMap = new HashMap<>();
-                processElement(conn, root, contextMap, hierarchyRules);
+    /**
+     * Streams the data XML with StAX instead of building a DOM, so memory stays flat regardless of file size.
+     * Only the current root-to-leaf path is kept; each parent/child edge is checked against the hierarchy
+     * rules as it is read. Rows are written in batches; a violation rolls back the uncommitted chunk
+     * (run with -Ddm.commit.rows=0 to keep the whole file in one transaction). Every commit records a
+     * checkpoint, so an interrupted run picks up after the last committed chunk when restarted.
+     * @param xmlFilePath Path to the data XML file
+     */
+    public static void insertStoreDataStreaming(String xmlFilePath) {
+        log.info("Streaming XML data from {}", xmlFilePath);
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        IngestionMetrics.startRun(xmlFilePath, new File(xmlFilePath).length(), 0);
+
+        try (Connection conn = DatabaseConnector.getConnection();
+             InputStream in = IngestionMetrics.track(new BufferedInputStream(new FileInputStream(xmlFilePath)))) {
+            SchemaCatalog catalog = SchemaCatalog.get(conn);
+            Map<String, Set<String>> hierarchyRules = catalog.getHierarchyRules();
+            EntityDedupIndex.clear();
+
+            IngestionCheckpoint checkpoint = null;
+            if (IngestionConfig.isCheckpointEnabled()) {
+                checkpoint = IngestionCheckpoint.open(conn, new File(xmlFilePath));
+                if (checkpoint.getResumeOrdinal() > 0) {
+                    log.info("Resuming after {} committed element events of {}", checkpoint.getResumeOrdinal(),
+                            xmlFilePath);
+                }
+            }
 
-                System.out.println("Data insertion completed successfully.");
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            try (BatchWriter writer = newBatchWriter(conn)) {
+                StreamState state = new StreamState();
+                if (checkpoint != null) {
+                    IngestionCheckpoint progress = checkpoint;
+                    writer.setCommitListener(c -> progress.record(c, state.ordinal, state.openElements(), state.done));
+                }
+                try {
+                    if (streamElements(writer, reader, hierarchyRules, state, checkpoint)) {
+                        state.done = true;
+                        writer.finish();
+                        log.info("Data insertion completed successfully.");
+                    } else {
+                        writer.rollback();
+                        log.warn("XML hierarchy validation failed. Uncommitted rows have been rolled back.");
+                    }
+                } catch (SQLException | XMLStreamException e) {
+                    writer.rollback();
+                    throw e;
+                }
+            } finally {
+                reader.close();
             }
-        } catch (Exception e) {
-            e.printStackTrace();
+        } catch (SQLException | XMLStreamException | IOException e) {
+            log.error("Streaming {} failed", xmlFilePath, e);
+        } finally {
+            IngestionMetrics.finishRun();
         }
     }
 
-    private static Map<String, Set<String>> loadHierarchyRules(Connection conn) throws SQLException {
-        Map<String, Set<String>> hierarchyRules = new HashMap<>();
+    /**
+     * Loads the data XML into empty tables through staging files and the database's bulk loader
+     * @param xmlFilePath Path to the data XML file
+     */
+    public static void insertStoreDataBulk(String xmlFilePath) {
+        BulkLoader.load(xmlFilePath);
+    }
+
+    private static BatchWriter newBatchWriter(Connection conn) throws SQLException {
+        return new BatchWriter(conn, IngestionConfig.getBatchSize(), IngestionConfig.getCommitRows());
+    }
 
-        String query = "SELECT parent_entity, child_entity FROM entity_hierarchy";
-        try (Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery(query)) {
+    /**
+     * One element on the current root-to-leaf path of the streaming parser
+     */
+    private static class PathFrame {
+        final String tag;
+        final BatchWriter.RowId id;
+        final boolean skipped;
+        final Map<String, String> attributes;
+
+        PathFrame(String tag, BatchWriter.RowId id, boolean skipped) {
+            this(tag, id, skipped, Collections.emptyMap());
+        }
+
+        PathFrame(String tag, BatchWriter.RowId id, boolean skipped, Map<String, String> attributes) {
+            this.tag = tag;
+            this.id = id;
+            this.skipped = skipped;
+            this.attributes = attributes;
+        }
+    }
 
-            while (rs.next()) {
-                String parent = rs.getString("parent_entity");
-                String child = rs.getString("child_entity");
+    /**
+     * Position of the streaming parser: the open elements and the number of element events
+     * (start and end tags) that have been fully processed
+     */
+    private static class StreamState {
+        final Deque<PathFrame> path = new ArrayDeque<>();
+        long ordinal;
+        boolean done;
+
+        List<IngestionCheckpoint.OpenElement> openElements() {
+            List<IngestionCheckpoint.OpenElement> elements = new ArrayList<>(path.size());
+            Iterator<PathFrame> outermostFirst = path.descendingIterator();
+            while (outermostFirst.hasNext()) {
+                PathFrame frame = outermostFirst.next();
+                elements.add(new IngestionCheckpoint.OpenElement(frame.tag, frame.skipped ? -1 : frame.id.get()));
+            }
+            return elements;
+        }
 
-                hierarchyRules.computeIfAbsent(parent, k -> new HashSet<>()).add(child);
+        void restore(List<IngestionCheckpoint.OpenElement> elements) {
+            path.clear();
+            for (IngestionCheckpoint.OpenElement element : elements) {
+                boolean skipped = element.id <= 0;
+                path.push(new PathFrame(element.tag, skipped ? null : BatchWriter.RowId.of(element.id), skipped));
             }
         }
+    }
+
+    /**
+     * Walks the stream, resolving each entity when its start tag is read (its children need the id) and
+     * queuing the relationship row when a leaf element closes. The state only advances once an event has
+     * been processed, so a commit in the middle of an event checkpoints the position before it.
+     * @param checkpoint Progress of an interrupted earlier run to skip, or null
+     * @return false if a hierarchy violation was found, true otherwise
+     */
+    private static boolean streamElements(BatchWriter writer, XMLStreamReader reader,
+                                          Map<String, Set<String>> hierarchyRules, StreamState state,
+                                          IngestionCheckpoint checkpoint)
+            throws SQLException, XMLStreamException {
+        Deque<PathFrame> path = state.path;
+        long resumeOrdinal = checkpoint != null ? checkpoint.getResumeOrdinal() : 0;
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event != XMLStreamConstants.START_ELEMENT && event != XMLStreamConstants.END_ELEMENT) {
+                continue;
+            }
+
+            // Skip the prefix committed by an earlier run, then pick up its open elements
+            if (state.ordinal < resumeOrdinal) {
+                state.ordinal++;
+                if (state.ordinal == resumeOrdinal) {
+                    state.restore(checkpoint.getResumePath());
+                }
+                continue;
+            }
 
-        System.out.println("Loaded hierarchy rules: " + hierarchyRules);
-        return hierarchyRules;
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                IngestionMetrics.elementParsed();
+                String tag = reader.getLocalName();
+                PathFrame parent = path.peek();
+
+                if (parent != null && !isAllowedChild(parent.tag, tag, hierarchyRules)) {
+                    log.warn("Hierarchy violation: {} cannot be a child of {} (line {})", tag, parent.tag,
+                            reader.getLocation().getLineNumber());
+                    return false;
+                }
+
+                // Same as the DOM path: an element without attributes is not stored, nor is its subtree
+                if (parent != null && parent.skipped) {
+                    path.push(new PathFrame(tag, null, true));
+                } else {
+                    Map<String, String> attributeMap = new HashMap<>();
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        attributeMap.put(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                    }
+
+                    boolean isLeaf = isLeafEntity(tag, hierarchyRules);
+                    BatchWriter.RowId entityId = getOrInsertEntity(writer, tag, attributeMap, isLeaf);
+                    path.push(new PathFrame(tag, entityId, entityId == null,
+                            isLeaf ? attributeMap : Collections.emptyMap()));
+                }
+            } else {
+                PathFrame frame = path.peek();
+                if (!frame.skipped && isLeafEntity(frame.tag, hierarchyRules)) {
+                    Map<String, Integer> contextMap = new HashMap<>();
+                    for (PathFrame ancestor : path) {
+                        if (ancestor != frame) {
+                            contextMap.put(ancestor.tag, ancestor.id.get());
+                        }
+                    }
+                    getOrInsertRelationship(writer, contextMap, frame.tag, frame.id, frame.attributes);
+                }
+                path.pop();
+            }
+            state.ordinal++;
+        }
+        return true;
     }
 
-    private static boolean validateXmlHierarchy(Element element, Map<String, Set<String>> hierarchyRules) {
-        String tag = element.getTagName();
+    /**
+     * Streams the data XML and ingests every subtree rooted at the split entity (dm.parallel.level, the
+     * children of the root element by default) on its own virtual thread with its own pooled connection.
+     * The ancestors of each subtree are resolved and committed once on the calling thread before it is handed
+     * off. A hierarchy violation stops further subtrees from being started; subtrees already committed are kept.
+     * @param xmlFilePath Path to the data XML file
+     */
+    public static void insertStoreDataParallel(String xmlFilePath) {
+        log.info("Streaming XML data from {} with parallel subtree ingestion", xmlFilePath);
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        long start = System.nanoTime();
+        IngestionMetrics.startRun(xmlFilePath, new File(xmlFilePath).length(), 0);
+
+        try (Connection conn = DatabaseConnector.getConnection();
+             InputStream in = IngestionMetrics.track(new BufferedInputStream(new FileInputStream(xmlFilePath)))) {
+            SchemaCatalog catalog = SchemaCatalog.get(conn);
+            Map<String, Set<String>> hierarchyRules = catalog.getHierarchyRules();
+            EntityDedupIndex.clear();
+
+            DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
+            XMLStreamReader reader = factory.createXMLStreamReader(in);
+            SubtreeScheduler scheduler = new SubtreeScheduler(hierarchyRules, IngestionConfig.getParallelWorkers());
+            boolean valid;
+            long mainRows;
+            try (BatchWriter writer = newBatchWriter(conn)) {
+                try {
+                    valid = streamSubtrees(writer, reader, builder, scheduler, hierarchyRules,
+                            IngestionConfig.getParallelLevel());
+                    writer.commit();
+                } catch (SQLException | XMLStreamException e) {
+                    writer.rollback();
+                    throw e;
+                } finally {
+                    scheduler.awaitAll();
+                }
+                mainRows = writer.getTotalRows();
+            } finally {
+                reader.close();
+            }
 
-        // Get child elements
-        NodeList childNodes = element.getChildNodes();
-        List<Element> childElements = new ArrayList<>();
+            long rows = mainRows + scheduler.rows.get();
+            if (log.isInfoEnabled()) {
+                double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+                log.info("Ingested {} subtrees on {} workers, wrote {} rows in {} s ({} rows/s)",
+                        scheduler.completed.get(), IngestionConfig.getParallelWorkers(), rows,
+                        String.format("%.2f", seconds), String.format("%.0f", seconds > 0 ? rows / seconds : 0));
+            }
 
-        for (int i = 0; i < childNodes.getLength(); i++) {
-            if (childNodes.item(i).getNodeType() == Node.ELEMENT_NODE) {
-                childElements.add((Element) childNodes.item(i));
+            if (valid && scheduler.failed.get() == 0) {
+                log.info("Data insertion completed successfully.");
+            } else {
+                log.warn("Parallel ingestion stopped after a failure. {} subtree(s) were rolled back; "
+                        + "committed subtrees have been kept.", scheduler.failed.get());
             }
+        } catch (SQLException | XMLStreamException | IOException | ParserConfigurationException e) {
+            log.error("Parallel ingestion of {} failed", xmlFilePath, e);
+        } finally {
+            IngestionMetrics.finishRun();
         }
+    }
+
+    /**
+     * Hands subtrees to virtual threads, at most one per pooled connection, and serializes subtrees
+     * that share the same split entity so their relationship rows cannot race each other
+     */
+    private static class SubtreeScheduler {
+        final Map<String, Set<String>> hierarchyRules;
+        final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+        final Semaphore slots;
+        final EntityClaims claims = new EntityClaims();
+        final Map<Integer, SplitLock> splitLocks = new ConcurrentHashMap<>();
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final AtomicLong rows = new AtomicLong();
+
+        SubtreeScheduler(Map<String, Set<String>> hierarchyRules, int workers) {
+            this.hierarchyRules = hierarchyRules;
+            this.slots = new Semaphore(Math.max(1, workers));
+        }
+
+        /**
+         * Submits a subtree, blocking while all workers are busy
+         * @param subtree Detached copy of the split element and its descendants
+         * @param splitId Id of the split element, already committed
+         * @param ancestors Committed ids of the split element's ancestors
+         */
+        void submit(Element subtree, BatchWriter.RowId splitId, Map<String, Integer> ancestors) {
+            slots.acquireUninterruptibly();
+            executor.execute(() -> {
+                SplitLock lock = splitLocks.compute(splitId.get(), (id, existing) -> {
+                    SplitLock held = existing != null ? existing : new SplitLock();
+                    held.users++;
+                    return held;
+                });
+                lock.lock.lock();
+                try {
+                    ingestSubtree(subtree, splitId, ancestors);
+                } finally {
+                    lock.lock.unlock();
+                    // The last subtree of a split id removes its lock, so the map only holds ids in flight
+                    splitLocks.computeIfPresent(splitId.get(), (id, held) -> --held.users == 0 ? null : held);
+                    slots.release();
+                }
+            });
+        }
+
+        /**
+         * Lets every lookup of a worker see what other workers have committed. Under MySQL's default
+         * REPEATABLE READ a worker whose snapshot predates another worker's commit of the same entity
+         * would not find it, insert it again and fail its subtree on the unique key. The pool restores
+         * the isolation level when the connection is returned.
+         */
+        private static Connection readCommitted(Connection conn) throws SQLException {
+            try {
+                conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+                return conn;
+            } catch (SQLException e) {
+                conn.close();
+                throw e;
+            }
+        }
+
+        private void ingestSubtree(Element subtree, BatchWriter.RowId splitId, Map<String, Integer> ancestors) {
+            String tag = subtree.getTagName();
+            try (Connection conn = readCommitted(DatabaseConnector.getConnection());
+                 BatchWriter writer = new BatchWriter(conn, IngestionConfig.getBatchSize(),
+                         IngestionConfig.getCommitRows(), claims)) {
+                try {
+                    boolean valid;
+                    if (isLeafEntity(tag, hierarchyRules)) {
+                        valid = validateXmlHierarchy(subtree, hierarchyRules);
+                        if (valid) {
+                            getOrInsertRelationship(writer, ancestors, tag, splitId, getAttributeMap(subtree));
+                        }
+                    } else {
+                        Map<String, Integer> context = new HashMap<>(ancestors);
+                        context.put(tag, splitId.get());
+                        valid = processChildren(writer, subtree, context, hierarchyRules);
+                    }
+                    if (!valid) {
+                        writer.rollback();
+                        failed.incrementAndGet();
+                        return;
+                    }
+                    writer.commit();
+                    rows.addAndGet(writer.getTotalRows());
+                    completed.incrementAndGet();
+                } catch (SQLException | RuntimeException | Error e) {
+                    // Also abandons the writer's claims, which other workers may be waiting on
+                    writer.rollback();
+                    throw e;
+                }
+            } catch (SQLException e) {
+                failed.incrementAndGet();
+                log.warn("Ingestion of {} subtree {} failed: {}", tag, splitId.get(), e.getMessage());
+            } catch (RuntimeException | Error e) {
+                failed.incrementAndGet();
+                log.error("Ingestion of {} subtree {} failed", tag, splitId.get(), e);
+                if (e instanceof Error error) {
+                    throw error;
+                }
+            }
+        }
+
+        /**
+         * Lock of a split id, counting the subtrees that hold or wait for it; only changed inside
+         * splitLocks.compute
+         */
+        static class SplitLock {
+            final ReentrantLock lock = new ReentrantLock();
+            int users;
+        }
+
+        boolean hasFailed() {
+            return failed.get() > 0;
+        }
+
+        void awaitAll() {
+            executor.close(); // Waits for the submitted subtrees to finish
+        }
+    }
+
+    /**
+     * Walks the stream on the calling thread, resolving the elements above the split level and
+     * submitting each split element's subtree to the scheduler
+     * @param splitLevel Entity name to split at, or null to split at the children of the root element
+     * @return false if a hierarchy violation was found or a worker failed, true otherwise
+     */
+    private static boolean streamSubtrees(BatchWriter writer, XMLStreamReader reader, DocumentBuilder builder,
+                                          SubtreeScheduler scheduler, Map<String, Set<String>> hierarchyRules,
+                                          String splitLevel) throws SQLException, XMLStreamException {
+        Deque<PathFrame> path = new ArrayDeque<>();
+
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                IngestionMetrics.elementParsed();
+                String tag = reader.getLocalName();
+                PathFrame parent = path.peek();
+
+                if (parent != null && !isAllowedChild(parent.tag, tag, hierarchyRules)) {
+                    log.warn("Hierarchy violation: {} cannot be a child of {} (line {})", tag, parent.tag,
+                            reader.getLocation().getLineNumber());
+                    return false;
+                }
+                if (scheduler.hasFailed()) {
+                    return false;
+                }
+
+                if (parent != null && parent.skipped) {
+                    path.push(new PathFrame(tag, null, true));
+                    continue;
+                }
+
+                Map<String, String> attributeMap = new HashMap<>();
+                for (int i = 0; i < reader.getAttributeCount(); i++) {
+                    attributeMap.put(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                }
+
+                boolean isSplit = splitLevel != null ? tag.equals(splitLevel) : path.size() == 1;
+                if (!isSplit) {
+                    boolean isLeaf = isLeafEntity(tag, hierarchyRules);
+                    BatchWriter.RowId entityId = getOrInsertEntity(writer, tag, attributeMap, isLeaf);
+                    path.push(new PathFrame(tag, entityId, entityId == null,
+                            isLeaf ? attributeMap : Collections.emptyMap()));
+                    continue;
+                }
+
+                // Reads up to and including the split element's end tag
+                Element subtree = readSubtree(reader, builder.newDocument());
+                BatchWriter.RowId splitId = getOrInsertEntity(writer, tag, attributeMap, false);
+                if (splitId == null) {
+                    if (!validateXmlHierarchy(subtree, hierarchyRules)) {
+                        return false;
+                    }
+                    continue;
+                }
+
+                // Workers run on other connections, so the ancestors must be committed first
+                writer.commit();
+                Map<String, Integer> ancestors = new HashMap<>();
+                for (PathFrame ancestor : path) {
+                    ancestors.put(ancestor.tag, ancestor.id.get());
+                }
+                scheduler.submit(subtree, splitId, ancestors);
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                PathFrame frame = path.pop();
+                if (!frame.skipped && isLeafEntity(frame.tag, hierarchyRules)) {
+                    Map<String, Integer> contextMap = new HashMap<>();
+                    for (PathFrame ancestor : path) {
+                        contextMap.put(ancestor.tag, ancestor.id.get());
+                    }
+                    getOrInsertRelationship(writer, contextMap, frame.tag, frame.id, frame.attributes);
+                }
+            }
+        }
+        return !scheduler.hasFailed();
+    }
+
+    /**
+     * Copies the element the reader is positioned on, with its attributes and descendant elements, into a DOM
+     * element. Leaves the reader on the element's end tag.
+     */
+    private static Element readSubtree(XMLStreamReader reader, Document document) throws XMLStreamException {
+        Element root = copyStartElement(reader, document);
+        Element current = root;
+        int depth = 1;
+
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                Element child = copyStartElement(reader, document);
+                current.appendChild(child);
+                current = child;
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+                if (depth > 0) {
+                    current = (Element) current.getParentNode();
+                }
+            }
+        }
+        return root;
+    }
+
+    private static Element copyStartElement(XMLStreamReader reader, Document document) {
+        Element element = document.createElement(reader.getLocalName());
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            element.setAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+        }
+        return element;
+    }
+
+    private static boolean isAllowedChild(String parentTag, String childTag,
+                                          Map<String, Set<String>> hierarchyRules) {
+        Set<String> children = hierarchyRules.get(parentTag);
+        return children != null && children.contains(childTag);
+    }
+
+    private static boolean validateXmlHierarchy(Element element, Map<String, Set<String>> hierarchyRules) {
+        String tag = element.getTagName();
 
         // Check each child element against hierarchy rules
-        for (Element child : childElements) {
-            String childTag = child.getTagName();
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            String childTag = ((Element) child).getTagName();
 
             // Check if this parent-child relationship is allowed
-            if (!hierarchyRules.containsKey(tag) || !hierarchyRules.get(tag).contains(childTag)) {
-                System.out.println("Hierarchy violation: " + childTag + " cannot be a child of " + tag);
+            if (!isAllowedChild(tag, childTag, hierarchyRules)) {
+                log.warn("Hierarchy violation: {} cannot be a child of {}", childTag, tag);
                 return false;
             }
 
             // Recursively validate child's hierarchy
-            if (!validateXmlHierarchy(child, hierarchyRules)) {
+            if (!validateXmlHierarchy((Element) child, hierarchyRules)) {
                 return false;
             }
         }
@@ -89,39 +635,58 @@ public class XMLDataInserter {
         return true;
     }
 
-    private static void processElement(Connection conn, Element element, Map<String, Integer> parentContext,
-                                       Map<String, Set<String>> hierarchyRules) throws SQLException {
+    /**
+     * Inserts an element and its subtree, checking every parent/child edge on the way
+     * @return false on the first hierarchy violation; the caller is expected to roll back
+     */
+    private static boolean processElement(BatchWriter writer, Element element, Map<String, Integer> parentContext,
+                                          Map<String, Set<String>> hierarchyRules) throws SQLException {
+        IngestionMetrics.elementParsed();
         String tag = element.getTagName();
 
         // Get attributes
-        Map<String, String> attributeMap = new HashMap<>();
-        NamedNodeMap attributes = element.getAttributes();
-        for (int i = 0; i < attributes.getLength(); i++) {
-            Node attr = attributes.item(i);
-            attributeMap.put(attr.getNodeName(), attr.getNodeValue());
-        }
+        Map<String, String> attributeMap = getAttributeMap(element);
 
-        // Get or insert entity
-        int entityId = getOrInsertEntity(conn, tag, attributeMap);
-        if (entityId > 0) {
-            // Create new context with this entity
-            Map<String, Integer> currentContext = new HashMap<>(parentContext);
-            currentContext.put(tag, entityId);
+        // Check if this is a leaf entity; leaves are queued since no child needs their id
+        boolean isLeaf = isLeafEntity(tag, hierarchyRules);
 
-            // Check if this is a leaf entity
-            boolean isLeaf = isLeafEntity(tag, hierarchyRules);
-            if (isLeaf) {
-                getOrInsertRelationship(conn, currentContext);
+        // Get or insert entity
+        BatchWriter.RowId entityId = getOrInsertEntity(writer, tag, attributeMap, isLeaf);
+        if (entityId == null || isLeaf) {
+            // Nothing below is inserted, but the subtree still has to follow the hierarchy
+            if (!validateXmlHierarchy(element, hierarchyRules)) {
+                return false;
+            }
+            if (entityId != null) {
+                getOrInsertRelationship(writer, parentContext, tag, entityId, attributeMap);
             }
+            return true;
+        }
 
-            // Process child elements
-            NodeList childNodes = element.getChildNodes();
-            for (int i = 0; i < childNodes.getLength(); i++) {
-                if (childNodes.item(i).getNodeType() == Node.ELEMENT_NODE) {
-                    processElement(conn, (Element) childNodes.item(i), currentContext, hierarchyRules);
-                }
+        // Create new context with this entity
+        Map<String, Integer> currentContext = new HashMap<>(parentContext);
+        currentContext.put(tag, entityId.get());
+
+        return processChildren(writer, element, currentContext, hierarchyRules);
+    }
+
+    private static boolean processChildren(BatchWriter writer, Element element, Map<String, Integer> context,
+                                           Map<String, Set<String>> hierarchyRules) throws SQLException {
+        String tag = element.getTagName();
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() != Node.ELEMENT_NODE) {
+                continue;
+            }
+            String childTag = ((Element) child).getTagName();
+            if (!isAllowedChild(tag, childTag, hierarchyRules)) {
+                log.warn("Hierarchy violation: {} cannot be a child of {}", childTag, tag);
+                return false;
+            }
+            if (!processElement(writer, (Element) child, context, hierarchyRules)) {
+                return false;
             }
         }
+        return true;
     }
 
     private static boolean isLeafEntity(String entityName, Map<String, Set<String>> hierarchyRules) {
@@ -135,179 +700,313 @@ public class XMLDataInserter {
         return children == null || children.isEmpty();
     }
 
-    private static int getOrInsertEntity(Connection conn, String entityType, Map<String, String> attributeMap) throws SQLException {
+    /**
+     * Looks up an entity by its attribute values and inserts it if it does not exist yet
+     * @param queue true to queue the insert in the current batch even without a client-assigned id
+     * @return The id of the entity (pending if queued), or null if the element has no attributes to store
+     */
+    private static BatchWriter.RowId getOrInsertEntity(BatchWriter writer, String entityType,
+                                                       Map<String, String> attributeMap, boolean queue)
+            throws SQLException {
         if (attributeMap.isEmpty()) {
-            return -1;
+            return null;
         }
 
         // Get table columns
-        List<String> tableColumns = getTableColumns(conn, entityType);
+        Connection conn = writer.getConnection();
+        SchemaCatalog catalog = SchemaCatalog.get(conn);
+        List<String> tableColumns = catalog.getColumns(entityType);
         if (tableColumns.isEmpty()) {
             throw new SQLException("Table " + entityType + " does not exist or has no columns");
         }
 
-        // First, check if entity already exists
-        int existingId = findExistingEntity(conn, entityType, attributeMap, tableColumns);
-        if (existingId > 0) {
-            System.out.println("Found existing " + entityType + " with id: " + existingId);
-            return existingId;
-        }
-
-        // If not, insert new entity
-        return insertEntity(conn, entityType, attributeMap, tableColumns);
-    }
-
-    private static int findExistingEntity(Connection conn, String entityType, Map<String, String> attributeMap,
-                                          List<String> tableColumns) throws SQLException {
-        StringBuilder sql = new StringBuilder("SELECT id FROM " + entityType + " WHERE ");
-        List<String> conditions = new ArrayList<>();
+        // Match attributes to columns
+        List<String> columns = new ArrayList<>();
         List<String> values = new ArrayList<>();
-
         for (String column : tableColumns) {
             if (column.equals("id")) continue; // Skip ID column
 
-            for (Map.Entry<String, String> entry : attributeMap.entrySet()) {
-                if (column.equals(entry.getKey())) {
-                    conditions.add(column + " = ?");
-                    values.add(entry.getValue());
-                    break;
-                }
+            if (attributeMap.containsKey(column)) {
+                // Typed columns compare and bind in their canonical form, e.g. 19.9 as 19.90 in DECIMAL(10, 2)
+                columns.add(column);
+                values.add(catalog.getColumnType(entityType, column).normalize(attributeMap.get(column)));
             }
         }
 
-        if (conditions.isEmpty()) {
-            return -1;
+        if (columns.isEmpty()) {
+            return null;
         }
 
-        sql.append(String.join(" AND ", conditions));
+        // Entities are matched on their natural key, the columns the unique index covers, so an
+        // element that only differs in other attributes resolves to the existing row
+        List<String> keyColumns = catalog.getDedupColumns(entityType);
+        List<String> keyValues = catalog.getDedupKey(entityType, columns, values);
 
-        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
-            for (int i = 0; i < values.size(); i++) {
-                stmt.setString(i + 1, values.get(i));
+        // First, check if entity already exists, either queued or in the table
+        BatchWriter.RowId pendingId = writer.findPendingEntity(entityType, columns, values);
+        if (pendingId != null) {
+            if (LogSampler.sample(log, "found queued")) {
+                log.debug("Found queued {}: {}", entityType, attributeMap);
             }
+            IngestionMetrics.rowDeduplicated();
+            return pendingId;
+        }
 
-            try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    return rs.getInt("id");
-                }
+        EntityDedupIndex index = EntityDedupIndex.forTable(conn, entityType, keyColumns);
+
+        Integer indexedId = index != null ? index.get(keyColumns, keyValues) : null;
+        if (indexedId != null) {
+            if (LogSampler.sample(log, "found existing")) {
+                log.debug("Found existing {} with id: {}", entityType, indexedId);
             }
+            IngestionMetrics.rowDeduplicated();
+            return BatchWriter.RowId.of(indexedId);
         }
 
-        return -1; // Not found
-    }
+        // Parallel workers claim the values first so that only one of them inserts the row
+        EntityClaims claims = writer.getClaims();
+        EntityClaims.Claim claim = null;
+        if (claims != null) {
+            while (true) {
+                claim = claims.claim(entityType, keyColumns, keyValues, writer);
+                if (claim.isOwnedBy(writer)) {
+                    break;
+                }
+                // Publish our own claims before waiting, so two workers never wait on each other
+                writer.commit();
+                Integer committedId = claim.await();
+                if (committedId != null) {
+                    if (LogSampler.sample(log, "found committed")) {
+                        log.debug("Found {} committed by another worker with id: {}", entityType, committedId);
+                    }
+                    IngestionMetrics.rowDeduplicated();
+                    return BatchWriter.RowId.of(committedId);
+                }
+            }
+            if (claim.getRowId() != null) {
+                IngestionMetrics.rowDeduplicated();
+                return claim.getRowId(); // Written earlier by this worker, not committed yet
+            }
 
-    private static int insertEntity(Connection conn, String entityType, Map<String, String> attributeMap,
-                                    List<String> tableColumns) throws SQLException {
-        // Match attributes to columns
-        StringBuilder sql = new StringBuilder("INSERT INTO " + entityType + " (");
-        StringBuilder placeholders = new StringBuilder(") VALUES (");
-        List<String> values = new ArrayList<>();
+            // Another worker may have committed the same values just before we claimed them
+            indexedId = index != null ? index.get(keyColumns, keyValues) : null;
+            if (indexedId != null) {
+                claims.commit(claim, indexedId);
+                IngestionMetrics.rowDeduplicated();
+                return BatchWriter.RowId.of(indexedId);
+            }
+        }
 
-        for (String column : tableColumns) {
-            if (column.equals("id")) continue; // Skip ID column
+        // An upsert resolves the row in the same statement that would insert it, but only when the
+        // element sets every natural key column; otherwise the unique index cannot match it
+        List<String> naturalKey = catalog.getNaturalKey(entityType);
+        boolean upsert = writer.isUpsert() && !naturalKey.isEmpty() && columns.containsAll(naturalKey);
+
+        // Only go to the database when the index cannot rule the row out
+        if (!upsert && (index == null || !index.covers(keyColumns))) {
+            int existingId = findExistingEntity(conn, entityType, keyColumns, keyValues);
+            if (existingId > 0) {
+                if (LogSampler.sample(log, "found existing")) {
+                    log.debug("Found existing {} with id: {}", entityType, existingId);
+                }
+                IngestionMetrics.rowDeduplicated();
+                if (claim != null) {
+                    claims.commit(claim, existingId);
+                } else if (index != null) {
+                    index.put(keyColumns, keyValues, existingId);
+                }
+                return BatchWriter.RowId.of(existingId);
+            }
+        }
 
-            for (Map.Entry<String, String> entry : attributeMap.entrySet()) {
-                if (column.equals(entry.getKey())) {
-                    sql.append(column).append(", ");
-                    placeholders.append("?, ");
-                    values.add(entry.getValue());
-                    break;
+        // If not, insert new entity; with a client-assigned id even parents can wait in the batch
+        BatchWriter.RowId rowId;
+        // In upsert mode a table with a natural key takes all its ids from AUTO_INCREMENT: upserts get
+        // generated ids, and MySQL's counter is not moved past reserved blocks (ALTER TABLE would commit
+        // and wait for the open transactions on the table), so block ids and upsert ids would collide
+        boolean generatedIds = writer.isUpsert() && !naturalKey.isEmpty();
+        IdAllocator allocator = generatedIds ? null : IdAllocator.forTable(entityType);
+        if (upsert) {
+            int id = writer.upsertNow(entityType, columns, values, naturalKey);
+            if (id <= 0) {
+                if (claim != null) {
+                    claims.abandon(claim);
                 }
+                return null;
             }
+            if (LogSampler.sample(log, "upserted")) {
+                log.debug("Upserted {} with id: {}", entityType, id);
+            }
+            rowId = BatchWriter.RowId.of(id);
+        } else if (allocator != null) {
+            if (LogSampler.sample(log, "queued new")) {
+                log.debug("Queued new {}: {}", entityType, attributeMap);
+            }
+            rowId = writer.queueEntity(entityType, columns, values, allocator.next());
+        } else if (queue) {
+            if (LogSampler.sample(log, "queued new")) {
+                log.debug("Queued new {}: {}", entityType, attributeMap);
+            }
+            rowId = writer.queueEntity(entityType, columns, values);
+        } else {
+            int id = writer.insertNow(entityType, columns, values);
+            if (id <= 0) {
+                if (claim != null) {
+                    claims.abandon(claim);
+                }
+                return null;
+            }
+            if (LogSampler.sample(log, "inserted new")) {
+                log.debug("Inserted new {}: {}", entityType, attributeMap);
+            }
+            rowId = BatchWriter.RowId.of(id);
         }
 
-        if (values.isEmpty()) {
-            return -1;
+        if (claim != null) {
+            // Other workers see the row once this worker commits
+            claims.attach(claim, rowId);
+            writer.trackClaim(claim);
+        } else if (index != null && rowId.isResolved()) {
+            index.put(keyColumns, keyValues, rowId.get());
         }
+        return rowId;
+    }
 
-        // Remove trailing commas
-        sql.setLength(sql.length() - 2);
-        placeholders.setLength(placeholders.length() - 2);
+    /**
+     * Finds the row with a dedup key; a key column the element does not set matches NULL
+     * @return The id, or -1 if there is no such row
+     */
+    private static int findExistingEntity(Connection conn, String entityType, List<String> columns,
+                                          List<String> values) throws SQLException {
+        StringBuilder sql = new StringBuilder("SELECT id FROM " + entityType + " WHERE ");
+        List<String> conditions = new ArrayList<>();
 
-        // Complete SQL statement
-        String insertSql = sql.toString() + placeholders.toString() + ")";
+        for (int i = 0; i < columns.size(); i++) {
+            conditions.add(columns.get(i) + (values.get(i) == null ? " IS NULL" : " = ?"));
+        }
 
-        try (PreparedStatement stmt = conn.prepareStatement(insertSql, Statement.RETURN_GENERATED_KEYS)) {
+        sql.append(String.join(" AND ", conditions));
+
+        SchemaCatalog catalog = SchemaCatalog.get(conn);
+        try (PreparedStatement stmt = conn.prepareStatement(sql.toString())) {
+            int p = 1;
             for (int i = 0; i < values.size(); i++) {
-                stmt.setString(i + 1, values.get(i));
+                if (values.get(i) != null) {
+                    catalog.getColumnType(entityType, columns.get(i)).bind(stmt, p++, values.get(i));
+                }
             }
 
-            int affected = stmt.executeUpdate();
-            if (affected > 0) {
-                try (ResultSet generatedKeys = stmt.getGeneratedKeys()) {
-                    if (generatedKeys.next()) {
-                        int id = generatedKeys.getInt(1);
-                        System.out.println("Inserted new " + entityType + ": " + attributeMap);
-                        return id;
-                    }
+            long start = System.nanoTime();
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (rs.next()) {
+                    return rs.getInt("id");
                 }
+            } finally {
+                IngestionMetrics.roundTrip("lookup " + entityType, System.nanoTime() - start);
             }
         }
 
-        return -1;
+        return -1; // Not found
     }
 
-    private static List<String> getTableColumns(Connection conn, String tableName) throws SQLException {
-        List<String> columns = new ArrayList<>();
-        try (Statement stmt = conn.createStatement()) {
-            ResultSet rs = stmt.executeQuery("SHOW COLUMNS FROM " + tableName);
-            while (rs.next()) {
-                columns.add(rs.getString("Field"));
-            }
+    private static Map<String, String> getAttributeMap(Element element) {
+        Map<String, String> attributeMap = new HashMap<>();
+        NamedNodeMap attributes = element.getAttributes();
+        for (int i = 0; i < attributes.getLength(); i++) {
+            Node attr = attributes.item(i);
+            attributeMap.put(attr.getNodeName(), attr.getNodeValue());
         }
-        return columns;
+        return attributeMap;
     }
 
-    private static void getOrInsertRelationship(Connection conn, Map<String, Integer> contextMap) throws SQLException {
-        // Get database name
-        String dbName = DatabaseConnector.getDatabaseName();
-
-        // Determine leaf entity by querying the entity_hierarchy table
-        String leafEntity = null;
-        try (Statement stmt = conn.createStatement();
-             ResultSet rs = stmt.executeQuery("SELECT child_entity FROM entity_hierarchy " +
-                     "WHERE child_entity NOT IN (SELECT parent_entity FROM entity_hierarchy)")) {
-            if (rs.next()) {
-                leafEntity = rs.getString("child_entity");
-            }
-        } catch (SQLException e) {
-            System.out.println("Error finding leaf entity: " + e.getMessage());
-            return;
-        }
+    /**
+     * Queues the relationship row linking a leaf entity to its ancestors, unless it already exists,
+     * and adds the new path to the writer's rollup aggregates and to its paths for the hierarchy index
+     * @param contextMap Ids of the ancestors of the leaf, keyed by entity name
+     * @param leafTag Entity name of the leaf element
+     * @param leafId Id of the leaf, possibly still pending in the current batch
+     * @param leafAttributes Attribute values of the leaf element
+     */
+    private static void getOrInsertRelationship(BatchWriter writer, Map<String, Integer> contextMap,
+                                                String leafTag, BatchWriter.RowId leafId,
+                                                Map<String, String> leafAttributes) throws SQLException {
+        Connection conn = writer.getConnection();
+
+        // Determine leaf entity from the cached hierarchy metadata
+        SchemaCatalog catalog = SchemaCatalog.get(conn);
+        String leafEntity = catalog.getLeafEntity();
 
         if (leafEntity == null) {
-            System.out.println("Could not determine leaf entity for relationships");
+            log.warn("Could not determine leaf entity for relationships");
             return;
         }
 
-        if (!contextMap.containsKey(leafEntity)) {
-            return; // Can't find leaf entity in context
+        if (!leafEntity.equals(leafTag)) {
+            return; // Element is not the leaf entity of the hierarchy
         }
 
         // Build the relationship table and columns
         String relationshipTable = leafEntity + "_relationships";
-        List<String> columns = getTableColumns(conn, relationshipTable);
-        Map<String, Integer> columnValues = new HashMap<>();
+        List<String> tableColumns = catalog.getColumns(relationshipTable);
+        List<String> columns = new ArrayList<>();
+        List<Object> values = new ArrayList<>();
 
-        for (Map.Entry<String, Integer> entry : contextMap.entrySet()) {
-            String columnName = entry.getKey() + "_id";
-            if (columns.contains(columnName)) {
-                columnValues.put(columnName, entry.getValue());
+        for (String column : tableColumns) {
+            if (column.equals(leafEntity + "_id")) {
+                columns.add(column);
+                values.add(leafId);
+            } else if (column.endsWith("_id")) {
+                Integer ancestorId = contextMap.get(column.substring(0, column.length() - "_id".length()));
+                if (ancestorId != null) {
+                    columns.add(column);
+                    values.add(ancestorId);
+                }
             }
         }
 
-        if (columnValues.isEmpty()) {
-            return;
+        // Check if relationship already exists; a leaf this writer just queued cannot have one yet,
+        // even when its id came from an id block, and in upsert mode the batch itself skips existing
+        // rows, unless a path must only be added to the rollups or the hierarchy index once
+        HierarchyRollup.Aggregates rollups = writer.getRollups();
+        if (!leafId.isUnreferenced() && (!writer.isUpsert() || rollups != null || HierarchyIndex.isLoaded())) {
+            Map<String, Integer> columnValues = new LinkedHashMap<>();
+            for (int i = 0; i < columns.size(); i++) {
+                Object value = values.get(i);
+                columnValues.put(columns.get(i), value instanceof Integer id ? id : leafId.get());
+            }
+            if (relationshipExists(conn, relationshipTable, columnValues)) {
+                if (LogSampler.sample(log, "relationship exists")) {
+                    log.debug("Relationship already exists for {} id: {}", leafEntity, leafId.get());
+                }
+                IngestionMetrics.rowDeduplicated();
+                return;
+            }
         }
 
-        // Check if relationship already exists
-        if (relationshipExists(conn, relationshipTable, columnValues)) {
-            System.out.println("Relationship already exists for " + leafEntity + " id: " + contextMap.get(leafEntity));
-            return;
-        }
+        if (writer.queueRelationship(relationshipTable, columns, values)) {
+            if (LogSampler.sample(log, "queued relationship")) {
+                log.debug("Queued new relationship in {}", relationshipTable);
+            }
 
-        // Insert new relationship
-        insertRelationship(conn, relationshipTable, columnValues);
+            // A new path gets its denormalized row in the same batch
+            FactTable facts = catalog.getFactTable();
+            List<Object> factIds = facts != null ? facts.getAppendValues(columns, values) : null;
+            if (factIds != null) {
+                writer.queueDerived(facts.getTable(), facts.getAppendSql(), factIds);
+            }
+            if (rollups != null) {
+                rollups.addPath(contextMap, leafAttributes);
+            }
+            HierarchyIndex.Paths paths = writer.getHierarchyPaths();
+            if (paths != null) {
+                paths.add(contextMap, leafId);
+            }
+        } else {
+            if (LogSampler.sample(log, "relationship queued")) {
+                log.debug("Relationship already queued for {} in {}", leafEntity, relationshipTable);
+            }
+            IngestionMetrics.rowDeduplicated();
+        }
     }
 
     private static boolean relationshipExists(Connection conn, String table, Map<String, Integer> columnValues)
@@ -327,37 +1026,12 @@ public class XMLDataInserter {
                 stmt.setInt(index++, value);
             }
 
+            long start = System.nanoTime();
             try (ResultSet rs = stmt.executeQuery()) {
                 return rs.next(); // Returns true if relationship exists
+            } finally {
+                IngestionMetrics.roundTrip("lookup " + table, System.nanoTime() - start);
             }
         }
     }
-
-    private static void insertRelationship(Connection conn, String table, Map<String, Integer> columnValues)
-            throws SQLException {
-        StringBuilder sql = new StringBuilder("INSERT INTO " + table + " (");
-        StringBuilder valuesClause = new StringBuilder(") VALUES (");
-        List<Integer> valuesList = new ArrayList<>();
-
-        for (Map.Entry<String, Integer> entry : columnValues.entrySet()) {
-            sql.append(entry.getKey()).append(", ");
-            valuesClause.append("?, ");
-            valuesList.add(entry.getValue());
-        }
-
-        // Remove trailing commas
-        sql.setLength(sql.length() - 2);
-        valuesClause.setLength(valuesClause.length() - 2);
-
-        // Complete SQL statement
-        String insertSql = sql.toString() + valuesClause.toString() + ")";
-
-        try (PreparedStatement stmt = conn.prepareStatement(insertSql)) {
-            for (int i = 0; i < valuesList.size(); i++) {
-                stmt.setInt(i + 1, valuesList.get(i));
-            }
-            stmt.executeUpdate();
-            System.out.println("Inserted new relationship in " + table);
-        }
-    }
 }
\ No newline at end of file
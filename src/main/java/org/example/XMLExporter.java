@@ -0,0 +1,190 @@
+package org.example;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * Rebuilds the nested data XML from the relationship table and the entity tables. All root-to-leaf
+ * paths are read with one join, ordered by the ids of their levels from the root down, through a
+ * cursor; since paths that share an ancestor arrive one after another, each path only closes the
+ * elements it leaves and opens the ones it enters. The document is written in one pass with
+ * XMLStreamWriter and memory holds no more than the open elements. Entities that are not on any
+ * path, such as a category without products, have no relationship row and are not written.
+ */
+public class XMLExporter {
+    private static final Logger log = LoggerFactory.getLogger(XMLExporter.class);
+    private static final XMLOutputFactory OUTPUT_FACTORY = XMLOutputFactory.newFactory();
+
+    /**
+     * Opens the document of a root entity row
+     */
+    private interface DocumentTarget {
+        OutputStream open(String rootEntity, int rootId) throws IOException;
+    }
+
+    /**
+     * Writes the paths that match a query as one document. The paths must all lie below the same root
+     * entity row, as in the files the inserter reads; filter on the root to pick one.
+     * @param query Filters on any level; ordering is added
+     * @param out Stream the document is written to; it is not closed
+     * @return Number of elements written
+     */
+    public static long export(DataRetriever.PathQuery query, OutputStream out) throws SQLException, XMLStreamException {
+        boolean[] opened = {false};
+        return write(query, (rootEntity, rootId) -> {
+            if (opened[0]) {
+                throw new IOException("The paths lie below more than one " + rootEntity
+                        + "; filter on the " + rootEntity + " or use exportAll");
+            }
+            opened[0] = true;
+            return new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    out.flush();
+                }
+            };
+        });
+    }
+
+    /**
+     * Writes one document per root entity row, named after the root entity and its id, e.g. store_1.xml
+     * @param dir Directory the documents are written to
+     * @return The documents written
+     */
+    public static List<Path> exportAll(Path dir) throws SQLException, XMLStreamException, IOException {
+        Files.createDirectories(dir);
+        List<Path> files = new ArrayList<>();
+        long elements = write(new DataRetriever.PathQuery(), (rootEntity, rootId) -> {
+            Path file = dir.resolve(rootEntity + "_" + rootId + ".xml");
+            files.add(file);
+            return new BufferedOutputStream(Files.newOutputStream(file), 1 << 16);
+        });
+        log.info("Exported {} elements to {} XML documents in {}", elements, files.size(), dir);
+        return files;
+    }
+
+    private static long write(DataRetriever.PathQuery query, DocumentTarget target)
+            throws SQLException, XMLStreamException {
+        long start = System.nanoTime();
+        long elements = 0;
+
+        // Ids of the open non-leaf elements, from the root down
+        List<Integer> open = new ArrayList<>();
+        OutputStream out = null;
+        XMLStreamWriter writer = null;
+
+        try (Stream<DataRetriever.PathRecord> paths = DataRetriever.streamPaths(query.orderByPath())) {
+            Iterator<DataRetriever.PathRecord> it = paths.iterator();
+            while (it.hasNext()) {
+                List<DataRetriever.PathLevel> levels = it.next().getLevels();
+
+                // First level where this path leaves the open elements
+                int shared = 0;
+                while (shared < open.size() && shared < levels.size() - 1
+                        && open.get(shared) == levels.get(shared).getId()) {
+                    shared++;
+                }
+                while (open.size() > shared) {
+                    open.remove(open.size() - 1);
+                    endElement(writer, open.size());
+                }
+
+                if (open.isEmpty()) {
+                    if (writer != null) {
+                        endDocument(writer, out);
+                    }
+                    DataRetriever.PathLevel root = levels.get(0);
+                    out = target.open(root.getEntity(), root.getId());
+                    writer = OUTPUT_FACTORY.createXMLStreamWriter(out, "UTF-8");
+                    writer.writeStartDocument("UTF-8", "1.0");
+                    writer.writeCharacters("\n");
+                }
+
+                for (int level = open.size(); level < levels.size(); level++) {
+                    DataRetriever.PathLevel entity = levels.get(level);
+                    boolean leaf = level == levels.size() - 1;
+                    if (level > 0) {
+                        writer.writeCharacters("\n" + "    ".repeat(level));
+                    }
+                    if (leaf) {
+                        writer.writeEmptyElement(entity.getEntity());
+                    } else {
+                        writer.writeStartElement(entity.getEntity());
+                        open.add(entity.getId());
+                    }
+                    for (Map.Entry<String, String> attribute : entity.getAttributes().entrySet()) {
+                        if (attribute.getValue() != null) {
+                            writer.writeAttribute(attribute.getKey(), attribute.getValue());
+                        }
+                    }
+                    elements++;
+                }
+            }
+
+            while (!open.isEmpty()) {
+                open.remove(open.size() - 1);
+                endElement(writer, open.size());
+            }
+            if (writer != null) {
+                endDocument(writer, out);
+                out = null;
+            }
+        } catch (IOException e) {
+            throw new XMLStreamException("Could not write the XML document: " + e.getMessage(), e);
+        } catch (UncheckedIOException e) {
+            throw new XMLStreamException("Could not write the XML document: " + e.getMessage(), e.getCause());
+        } catch (DataRetriever.UncheckedSQLException e) {
+            throw e.getCause();
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // Already failed
+                }
+            }
+        }
+
+        if (log.isInfoEnabled()) {
+            double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+            log.info("Wrote {} XML elements in {} s ({} elements/s)", elements, String.format("%.2f", seconds),
+                    String.format("%.0f", seconds > 0 ? elements / seconds : 0));
+        }
+        return elements;
+    }
+
+    private static void endElement(XMLStreamWriter writer, int depth) throws XMLStreamException {
+        writer.writeCharacters("\n" + "    ".repeat(depth));
+        writer.writeEndElement();
+    }
+
+    private static void endDocument(XMLStreamWriter writer, OutputStream out) throws XMLStreamException, IOException {
+        writer.writeCharacters("\n");
+        writer.writeEndDocument();
+        writer.close();
+        out.close();
+    }
+}
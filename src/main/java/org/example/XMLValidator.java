@@ -1,23 +1,218 @@
 package org.example;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
+
 import javax.xml.XMLConstants;
-import javax.xml.transform.stream.StreamSource;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.transform.stax.StAXSource;
 import javax.xml.validation.Schema;
 import javax.xml.validation.SchemaFactory;
 import javax.xml.validation.Validator;
-import java.io.File;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Validates XML files against XSDs. Each XSD is compiled once per content and the thread-safe Schema
+ * is kept, keyed by the XSD's path and SHA-256 hash; an XSD that changes on disk is compiled again.
+ * Validators are not thread-safe, so each compiled schema keeps a small pool of them that concurrent
+ * callers borrow and return. Documents are validated as a StAX stream and never held in memory.
+ */
 public class XMLValidator {
+    private static final Logger log = LoggerFactory.getLogger(XMLValidator.class);
+
+    private static final XMLInputFactory INPUT_FACTORY = newInputFactory();
+
+    /**
+     * Validators kept per schema for reuse; more may exist while many callers validate at once
+     */
+    private static final int POOL_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+
+    private static final Map<Path, CompiledSchema> schemas = new ConcurrentHashMap<>();
+
+    /**
+     * A compiled XSD and its idle validators
+     */
+    private static class CompiledSchema {
+        final String hash;
+        final long lastModified;
+        final long size;
+        final Schema schema;
+        final ConcurrentLinkedQueue<Validator> idle = new ConcurrentLinkedQueue<>();
+        final AtomicInteger idleCount = new AtomicInteger();
+
+        CompiledSchema(String hash, long lastModified, long size, Schema schema) {
+            this.hash = hash;
+            this.lastModified = lastModified;
+            this.size = size;
+            this.schema = schema;
+        }
+
+        Validator borrow() {
+            Validator validator = idle.poll();
+            if (validator == null) {
+                return schema.newValidator();
+            }
+            idleCount.decrementAndGet();
+            return validator;
+        }
+
+        void giveBack(Validator validator) {
+            if (idleCount.incrementAndGet() <= POOL_SIZE) {
+                validator.reset();
+                idle.offer(validator);
+            } else {
+                idleCount.decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Validates an XML file against an XSD
+     * @param xsdPath Path to the XSD
+     * @param xmlPath Path to the XML file
+     * @return true if the file is valid
+     */
     public static boolean validateXMLSchema(String xsdPath, String xmlPath) {
+        try (InputStream in = new BufferedInputStream(Files.newInputStream(Paths.get(xmlPath)))) {
+            return validate(xsdPath, in, xmlPath);
+        } catch (IOException e) {
+            log.warn("Could not read {}: {}", xmlPath, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Validates an XML document read from a stream against an XSD
+     * @param xsdPath Path to the XSD
+     * @param in The XML document; it is not closed
+     * @param name Name of the document for error messages
+     * @return true if the document is valid
+     */
+    public static boolean validate(String xsdPath, InputStream in, String name) {
+        CompiledSchema compiled;
         try {
-            SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
-            Schema schema = factory.newSchema(new File(xsdPath));
-            Validator validator = schema.newValidator();
-            validator.validate(new StreamSource(new File(xmlPath)));
+            compiled = getSchema(xsdPath);
+        } catch (IOException | SAXException e) {
+            log.warn("Could not compile schema {}: {}", xsdPath, e.getMessage());
+            return false;
+        }
+
+        Validator validator = compiled.borrow();
+        XMLStreamReader reader = null;
+        try {
+            reader = INPUT_FACTORY.createXMLStreamReader(in);
+            validator.validate(new StAXSource(reader));
             return true;
-        } catch (Exception e) {
-            e.printStackTrace();
+        } catch (SAXException | XMLStreamException | IOException e) {
+            log.warn("{} is not valid against {}{}", name, xsdPath, describe(e));
             return false;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // The underlying stream belongs to the caller
+                }
+            }
+            compiled.giveBack(validator);
         }
     }
+
+    /**
+     * Validates an XML file on a virtual thread, so validation can overlap other work such as ingestion
+     * @param xsdPath Path to the XSD
+     * @param xmlPath Path to the XML file
+     * @return Completes with true if the file is valid
+     */
+    public static CompletableFuture<Boolean> validateAsync(String xsdPath, String xmlPath) {
+        return CompletableFuture.supplyAsync(() -> validateXMLSchema(xsdPath, xmlPath),
+                task -> Thread.ofVirtual().start(task));
+    }
+
+    /**
+     * Reports the line of a validation error; the StAX bridge wraps the SAXParseException that has it
+     */
+    private static String describe(Exception e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof SAXParseException parseException) {
+                return " (line " + parseException.getLineNumber() + "): " + parseException.getMessage();
+            }
+        }
+        return ": " + e.getMessage();
+    }
+
+    /**
+     * Gets the compiled form of an XSD, compiling it only if it is new or its content changed
+     */
+    private static CompiledSchema getSchema(String xsdPath) throws IOException, SAXException {
+        Path path = Paths.get(xsdPath).toAbsolutePath().normalize();
+        CompiledSchema cached = schemas.get(path);
+        if (cached != null && isCurrent(cached, path)) {
+            return cached;
+        }
+        return compile(path);
+    }
+
+    private static boolean isCurrent(CompiledSchema compiled, Path path) throws IOException {
+        return compiled.lastModified == Files.getLastModifiedTime(path).toMillis() && compiled.size == Files.size(path);
+    }
+
+    /**
+     * Compiles an XSD; synchronized so that concurrent callers compile a new schema only once
+     */
+    private static synchronized CompiledSchema compile(Path path) throws IOException, SAXException {
+        CompiledSchema cached = schemas.get(path);
+        if (cached != null && isCurrent(cached, path)) {
+            return cached;
+        }
+        long lastModified = Files.getLastModifiedTime(path).toMillis();
+        long size = Files.size(path);
+
+        // The timestamp moved; the content hash decides whether the XSD really changed
+        byte[] content = Files.readAllBytes(path);
+        String hash = sha256(content);
+        if (cached != null && cached.hash.equals(hash)) {
+            CompiledSchema touched = new CompiledSchema(hash, lastModified, size, cached.schema);
+            schemas.put(path, touched);
+            return touched;
+        }
+
+        SchemaFactory factory = SchemaFactory.newInstance(XMLConstants.W3C_XML_SCHEMA_NS_URI);
+        Schema schema = factory.newSchema(path.toFile());
+        CompiledSchema compiled = new CompiledSchema(hash, lastModified, size, schema);
+        schemas.put(path, compiled);
+        log.info("Compiled schema {}", path);
+        return compiled;
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static XMLInputFactory newInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        return factory;
+    }
 }
@@ -1,138 +1,179 @@
 package org.example;
 
-import org.w3c.dom.*;
-import javax.xml.parsers.*;
-import java.io.File;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.util.*;
 
 public class XSDToSQLConverter {
-    public static List<String> parseXSD(String xsdFilePath) {
-        List<String> tableDefinitions = new ArrayList<>();
-        List<String> hierarchyInserts = new ArrayList<>();
-        Set<String> entityNames = new HashSet<>();
-        List<String> hierarchyEntities = new ArrayList<>();
-        Map<String, String> parentChildMap = new HashMap<>();
-
-        try {
-            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            Document document = builder.parse(new File(xsdFilePath));
-
-            NodeList entities = document.getElementsByTagName("Enitity");
-
-            // Create entity tables
-            for (int i = 0; i < entities.getLength(); i++) {
-                Element entity = (Element) entities.item(i);
-                String tableName = entity.getAttribute("Name");
-                entityNames.add(tableName);
-                hierarchyEntities.add(tableName);
-
-                StringBuilder tableSQL = new StringBuilder("CREATE TABLE " + tableName + " (id INT AUTO_INCREMENT PRIMARY KEY, ");
-                NodeList attributes = entity.getElementsByTagName("attribute");
-
-                for (int j = 0; j < attributes.getLength(); j++) {
-                    Element attr = (Element) attributes.item(j);
-                    tableSQL.append(attr.getAttribute("Name")).append(" ")
-                            .append(mapXSDTypeToSQL(attr.getAttribute("type"))).append(", ");
-                }
-
-                if (attributes.getLength() > 0)
-                    tableSQL.setLength(tableSQL.length() - 2);
-                else
-                    tableSQL.setLength(tableSQL.length() - 1);
-
-                tableSQL.append(");");
-                tableDefinitions.add(tableSQL.toString());
-            }
+    private static final Logger log = LoggerFactory.getLogger(XSDToSQLConverter.class);
 
-            // Build the entity hierarchy relationships
-            for (int i = 0; i < entities.getLength(); i++) {
-                Element entity = (Element) entities.item(i);
-                String source = entity.getAttribute("Name");
-                NodeList relations = entity.getElementsByTagName("relation");
-
-                for (int j = 0; j < relations.getLength(); j++) {
-                    Element relation = (Element) relations.item(j);
-                    String target = relation.getAttribute("target");
-                    parentChildMap.put(target, source);
-                }
-            }
+    static String createEntityTable(SchemaModel.Entity entity) {
+        StringBuilder tableSQL = new StringBuilder("CREATE TABLE " + entity.getName() + " ("
+                + SqlDialect.current().getIdColumn());
+        for (SchemaModel.Attribute attr : entity.getAttributes()) {
+            tableSQL.append(", ").append(attr.getName()).append(" ").append(columnType(attr));
+        }
+        tableSQL.append(");");
+        return tableSQL.toString();
+    }
+
+    /**
+     * @return SQL type of an attribute's column: the inferred type, or the mapping of its declared type
+     */
+    static String columnType(SchemaModel.Attribute attr) {
+        return attr.getInferredSqlType() != null ? attr.getInferredSqlType() : mapXSDTypeToSQL(attr.getType());
+    }
+
+    static String getRelationshipTable(SchemaModel model) {
+        return model.getLeafEntity() + "_relationships";
+    }
+
+    /**
+     * @return The *_id columns of the relationship table, leaf first so lookups by leaf id use its index too
+     */
+    static List<String> getRelationshipColumns(SchemaModel model) {
+        List<String> idColumns = new ArrayList<>();
+        for (String entity : model.getHierarchyPath()) {
+            idColumns.add(entity + "_id");
+        }
+        return idColumns;
+    }
+
+    static String createRelationshipTable(SchemaModel model) {
+        // Create relationship table based on the hierarchy
+        List<String> hierarchyPath = model.getHierarchyPath();
+        StringBuilder relationshipSQL = new StringBuilder("CREATE TABLE " + getRelationshipTable(model) + " (");
+        relationshipSQL.append(SqlDialect.current().getIdColumn());
+
+        for (String entity : hierarchyPath) {
+            relationshipSQL.append(", ").append(entity).append("_id INT NOT NULL");
+        }
+
+        for (String entity : hierarchyPath) {
+            relationshipSQL.append(", FOREIGN KEY (").append(entity).append("_id) ")
+                    .append("REFERENCES ").append(entity).append("(id) ")
+                    .append("ON DELETE CASCADE ON UPDATE CASCADE");
+        }
+
+        relationshipSQL.append(");");
+        return relationshipSQL.toString();
+    }
 
-            // Find the leaf entity (one with no children)
-            String leafEntity = null;
-            for (String entity : hierarchyEntities) {
-                if (!parentChildMap.containsValue(entity)) {
-                    leafEntity = entity;
-                    break;
-                }
+    /**
+     * Creates the denormalized table with one row per leaf path and the attributes of every level.
+     * It has no foreign keys: it is a copy for reading and is only appended to.
+     */
+    static String createFactTable(SchemaModel model) {
+        FactTable facts = FactTable.forModel(model);
+        StringBuilder factSQL = new StringBuilder("CREATE TABLE " + facts.getTable() + " ("
+                + SqlDialect.current().getIdColumn());
+        for (String idColumn : facts.getIdColumns()) {
+            factSQL.append(", ").append(idColumn).append(" INT NOT NULL");
+        }
+        for (String entity : model.getHierarchyPath()) {
+            for (SchemaModel.Attribute attr : FactTable.getAttributes(model, entity)) {
+                factSQL.append(", ").append(FactTable.getColumn(entity, attr.getName()))
+                        .append(" ").append(columnType(attr));
             }
+        }
+        factSQL.append(");");
+        return factSQL.toString();
+    }
+
+    /**
+     * Creates the rollup table of one level above the leaf
+     */
+    static String createRollupTable(SchemaModel model, HierarchyRollup rollup, String level) {
+        Map<String, String> leafTypes = new HashMap<>();
+        for (SchemaModel.Attribute attr : FactTable.getAttributes(model, model.getLeafEntity())) {
+            leafTypes.put(attr.getName(), columnType(attr));
+        }
+        return rollup.createTableSql(level, leafTypes);
+    }
+
+    static String createHierarchyTable() {
+        return "CREATE TABLE entity_hierarchy (" +
+                SqlDialect.current().getIdColumn() + ", " +
+                "parent_entity VARCHAR(255), " +
+                "child_entity VARCHAR(255), " +
+                "relation_name VARCHAR(255)" +
+                ");";
+    }
 
-            if (leafEntity != null) {
-                // Build the complete hierarchy path from leaf to root
-                List<String> hierarchyPath = new ArrayList<>();
-                hierarchyPath.add(leafEntity);
-
-                String current = leafEntity;
-                while (parentChildMap.containsKey(current)) {
-                    current = parentChildMap.get(current);
-                    hierarchyPath.add(current);
-                }
-
-                // Create relationship table based on the hierarchy
-                StringBuilder relationshipSQL = new StringBuilder("CREATE TABLE " + leafEntity + "_relationships (");
-                relationshipSQL.append("id INT AUTO_INCREMENT PRIMARY KEY");
-
-                for (String entity : hierarchyPath) {
-                    relationshipSQL.append(", ").append(entity).append("_id INT NOT NULL");
-                }
-
-                for (String entity : hierarchyPath) {
-                    relationshipSQL.append(", FOREIGN KEY (").append(entity).append("_id) ")
-                            .append("REFERENCES ").append(entity).append("(id) ")
-                            .append("ON DELETE CASCADE ON UPDATE CASCADE");
-                }
-
-                relationshipSQL.append(");");
-                tableDefinitions.add(relationshipSQL.toString());
+    /**
+     * Adds the hierarchy metadata in one statement; rows that are already there are skipped
+     * @return The INSERT, or null if the model has no relations
+     */
+    static String insertHierarchy(SchemaModel model) {
+        List<String> rows = new ArrayList<>();
+        for (SchemaModel.Entity entity : model.getEntities()) {
+            for (SchemaModel.Relation relation : entity.getRelations()) {
+                rows.add("(" + quote(entity.getName()) + ", " + quote(relation.getTarget()) + ", "
+                        + quote(relation.getName()) + ")");
             }
+        }
+        if (rows.isEmpty()) {
+            return null;
+        }
+        return SqlDialect.current().insertIgnoreSql(
+                "INSERT INTO entity_hierarchy (parent_entity, child_entity, relation_name) VALUES "
+                        + String.join(", ", rows)) + ";";
+    }
 
-            // Create hierarchy table for metadata
-            tableDefinitions.add("CREATE TABLE entity_hierarchy (" +
-                    "id INT AUTO_INCREMENT PRIMARY KEY, " +
-                    "parent_entity VARCHAR(255), " +
-                    "child_entity VARCHAR(255), " +
-                    "relation_name VARCHAR(255)" +
-                    ");");
-
-            // Add hierarchy metadata
-            for (int i = 0; i < entities.getLength(); i++) {
-                Element entity = (Element) entities.item(i);
-                String source = entity.getAttribute("Name");
-                NodeList relations = entity.getElementsByTagName("relation");
-
-                for (int j = 0; j < relations.getLength(); j++) {
-                    Element relation = (Element) relations.item(j);
-                    String target = relation.getAttribute("target");
-                    String relName = relation.getAttribute("Name");
-
-                    hierarchyInserts.add("INSERT INTO entity_hierarchy (parent_entity, child_entity, relation_name) VALUES " +
-                            "('" + source + "', '" + target + "', '" + relName + "');");
-                }
+    /**
+     * Removes parent/child pairs from the hierarchy metadata
+     * @param pairs Children per parent; must not be empty
+     * @return The DELETE
+     */
+    static String deleteHierarchy(Map<String, Set<String>> pairs) {
+        List<String> conditions = new ArrayList<>();
+        pairs.forEach((parent, children) -> {
+            for (String child : children) {
+                conditions.add("(parent_entity = " + quote(parent) + " AND child_entity = " + quote(child) + ")");
             }
+        });
+        return "DELETE FROM entity_hierarchy WHERE " + String.join(" OR ", conditions) + ";";
+    }
 
-            tableDefinitions.addAll(hierarchyInserts);
+    private static String quote(String value) {
+        return "'" + value.replace("'", "''") + "'";
+    }
 
-        } catch (Exception e) {
-            e.printStackTrace();
+    /**
+     * Gets the columns of an entity's unique index: its natural key, unless the database cannot
+     * index that many wide columns, e.g. five VARCHAR(255) attributes in utf8mb4 on MySQL. Such an
+     * entity gets no unique index and is deduplicated on all its attributes.
+     * @return The key columns, or an empty list if the entity gets no unique index
+     */
+    static List<String> getIndexedKey(SchemaModel.Entity entity) {
+        List<String> naturalKey = entity.getNaturalKey();
+        List<String> types = new ArrayList<>();
+        for (SchemaModel.Attribute attr : entity.getAttributes()) {
+            if (naturalKey.contains(attr.getName())) {
+                types.add(columnType(attr));
+            }
+        }
+        if (!naturalKey.isEmpty() && !SqlDialect.current().fitsIndex(types)) {
+            log.warn("Natural key {} of {} is too wide for a unique index; mark fewer or narrower attributes "
+                    + "with key=\"true\". Entities are deduplicated by lookup only.", naturalKey, entity.getName());
+            return Collections.emptyList();
         }
-        return tableDefinitions;
+        return naturalKey;
+    }
+
+    static String createUniqueIndex(String tableName, List<String> columns) {
+        return "CREATE UNIQUE INDEX uk_" + tableName + " ON " + tableName +
+                " (" + String.join(", ", columns) + ");";
     }
 
     private static String mapXSDTypeToSQL(String xsdType) {
         return switch (xsdType.toLowerCase()) {
             case "string" -> "VARCHAR(255)";
             case "int", "integer" -> "INT";
-            case "float", "double" -> "DOUBLE";
+            case "long" -> "BIGINT";
+            case "decimal" -> "DECIMAL(18, 4)";
+            case "float", "double" -> SqlDialect.current().getDoubleType();
             case "boolean" -> "BOOLEAN";
             case "date" -> "DATE";
             default -> "TEXT";